@@ -0,0 +1,161 @@
+package ast_utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ * Augments a raw JavaScript AST (nodes with id, type, value and children only)
+ * with the links needed by the DSL: parent, left/right sibling, previous/next leaf
+ * and previous node with the same value. Replaces python/JSONGenerator.py,
+ * every link is computed in a single linear pass over the nodes.
+ *
+ * The output is the one of the python script: a leaf is a node without the children
+ * attribute and previous/next leaf are always -1 (the script overwrote them after the
+ * search). Actual previous/next leaf links are only computed with leafLinks, this changes
+ * what PrevLeaf/NextLeaf do and thereby the programs found.
+ *
+ * Nodes are added in any order with addNode, build() produces the dense tree.
+ */
+final class ASTAugmenter {
+
+	private final SymbolTable symbols;
+	private final boolean leafLinks;
+	private int nodeCnt;
+	private int childCnt;
+	private int[] ids;
+	private int[] types;
+	private int[] values;
+	private boolean[] leaves;
+	private int[] childStart;
+	private int[] childList;
+
+	ASTAugmenter(SymbolTable symbols, boolean leafLinks) {
+		this.symbols = symbols;
+		this.leafLinks = leafLinks;
+		ids = new int[64];
+		types = new int[64];
+		values = new int[64];
+		leaves = new boolean[64];
+		childStart = new int[65];
+		childList = new int[64];
+	}
+
+	// type and value are ids of the symbol table,
+	// children == null marks a leaf, i.e. a node without the children attribute
+	void addNode(int id, int type, int value, int[] children, int childrenCnt) {
+		if (nodeCnt == ids.length) {
+			int cap = ids.length * 2;
+			ids = Arrays.copyOf(ids, cap);
+			types = Arrays.copyOf(types, cap);
+			values = Arrays.copyOf(values, cap);
+			leaves = Arrays.copyOf(leaves, cap);
+			childStart = Arrays.copyOf(childStart, cap + 1);
+		}
+		int cnt = children == null ? 0 : childrenCnt;
+		if (childCnt + cnt > childList.length) {
+			childList = Arrays.copyOf(childList, Math.max(childList.length * 2, childCnt + cnt));
+		}
+
+		ids[nodeCnt] = id;
+		types[nodeCnt] = type;
+		values[nodeCnt] = value;
+		leaves[nodeCnt] = children == null;
+		for (int i = 0; i < cnt; i++) {
+			childList[childCnt++] = children[i];
+		}
+		childStart[++nodeCnt] = childCnt;
+	}
+
+	int getNodeCnt() {
+		return nodeCnt;
+	}
+
+	ASTTree build() {
+		int size = 0;
+		for (int k = 0; k < nodeCnt; k++) {
+			size = Math.max(size, ids[k] + 1);
+		}
+
+		boolean[] exists = new boolean[size];
+		boolean[] leaf = new boolean[size];
+		int[] type = new int[size];
+		int[] value = new int[size];
+		int[] parent = filled(size);
+		int[] left = filled(size);
+		int[] right = filled(size);
+		int[] prevLeaf = filled(size);
+		int[] nextLeaf = filled(size);
+		int[] prevValue = filled(size);
+		int[] childOffset = new int[size + 1];
+		int[] children = new int[childCnt];
+
+		// node columns and children counts (shifted by one for the prefix sum)
+		for (int k = 0; k < nodeCnt; k++) {
+			int nd = ids[k];
+			exists[nd] = true;
+			leaf[nd] = leaves[k];
+			type[nd] = types[k];
+			value[nd] = values[k];
+			childOffset[nd + 1] = childStart[k + 1] - childStart[k];
+		}
+		for (int nd = 0; nd < size; nd++) {
+			childOffset[nd + 1] += childOffset[nd];
+		}
+
+		// children in CSR order, parent and siblings
+		for (int k = 0; k < nodeCnt; k++) {
+			int nd = ids[k];
+			int from = childStart[k];
+			int cnt = childStart[k + 1] - from;
+			int off = childOffset[nd];
+			for (int j = 0; j < cnt; j++) {
+				int child = childList[from + j];
+				children[off + j] = child;
+				if (child < 0 || child >= size)
+					continue;
+				parent[child] = nd;
+				left[child] = j > 0 ? childList[from + j - 1] : -1;
+				right[child] = j < cnt - 1 ? childList[from + j + 1] : -1;
+			}
+		}
+
+		// previous node with the same value, ascending node order
+		HashMap<Integer, Integer> lastWithValue = new HashMap<>();
+		for (int nd = 0; nd < size; nd++) {
+			if (!exists[nd] || value[nd] == SymbolTable.EMPTY)
+				continue;
+			Integer prev = lastWithValue.put(value[nd], nd);
+			prevValue[nd] = prev == null ? -1 : prev;
+		}
+
+		if (leafLinks) {
+			// previous leaf, ascending node order
+			int lastLeaf = -1;
+			for (int nd = 0; nd < size; nd++) {
+				if (!exists[nd])
+					continue;
+				prevLeaf[nd] = lastLeaf;
+				if (leaf[nd])
+					lastLeaf = nd;
+			}
+
+			// next leaf, descending node order
+			int nextLeafNd = -1;
+			for (int nd = size - 1; nd >= 0; nd--) {
+				if (!exists[nd])
+					continue;
+				nextLeaf[nd] = nextLeafNd;
+				if (leaf[nd])
+					nextLeafNd = nd;
+			}
+		}
+
+		return new ArrayASTTree(size, exists, parent, left, right, prevLeaf, nextLeaf, prevValue, childOffset, children, type, value, symbols);
+	}
+
+	private static int[] filled(int size) {
+		int[] arr = new int[size];
+		Arrays.fill(arr, -1);
+		return arr;
+	}
+}
@@ -3,95 +3,70 @@ package ast_utils;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FilterReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
 import java.util.HashMap;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
+/*
+ * Streaming AST loader, the JSON is never held in memory as a whole.
+ * A file may contain any number of trees, in one of the forms:
+ *  - a single tree: [ {node}, {node}, ..., program_id ]
+ *  - an array of trees: [ [tree], [tree], ... ]
+ *  - trees one after another, one tree per line (JSONL) or separated by commas
+ * Trees augmented by python/JSONGenerator.py ({"program_id": ..} as the first element)
+ * are accepted as well, only id/type/value/children are read and the links are recomputed.
+ * Trees without an explicit program id get their position in the file as the id.
+ */
 class ASTParser {
 
 	private static final String DEFAULT_FILE_LOC = "programs_augmented.json";
-	
+
 	private static final String program_id = "program_id";
 	private static final String value = "value";
 	private static final String nodeIdx = "id";
-	private static final String parentIdx = "parent";
-	private static final String prevLeafIdx = "prev_leaf";
-	private static final String nextLeafIdx = "next_leaf";
-	private static final String leftIdx = "left";
-	private static final String rightIdx = "right";
-	private static final String prevNodeValueIdx = "previous_id";
 	private static final String childrenIdx = "children";
 	private static final String type = "type";
-	
-	
-	HashMap<Integer, HashMap<Integer, ASTNode>> parse(String fileLoc) {
+
+	private int[] ndChildren = new int[16];
+	// shared by all trees of the file
+	private final ArraySymbolTable symbols = new ArraySymbolTable();
+	// see ASTAugmenter
+	private final boolean leafLinks;
+
+	ASTParser(boolean leafLinks) {
+		this.leafLinks = leafLinks;
+	}
+
+	HashMap<Integer, ASTTree> parse(String fileLoc) {
 		if (fileLoc.equals("")) {
 			fileLoc = DEFAULT_FILE_LOC;
 		}
 
-		HashMap<Integer, HashMap<Integer, ASTNode>> astStore = new HashMap<>();
-		BufferedReader jsonReader = null;
+		HashMap<Integer, ASTTree> astStore = new HashMap<>();
+		JsonReader jsonReader = null;
 		try {
-			jsonReader = new BufferedReader(new FileReader(fileLoc));
-		    
-			String jsonLine = jsonReader.readLine();
-			if (!jsonLine.equals("")) {
-				// if JSON file wasn't empty, parse data
-				JsonParser parser = new JsonParser();
-
-				
-				JsonElement jElement = parser.parse(jsonLine);
-				JsonArray mainArray = jElement.getAsJsonArray();
-				JsonObject jTreeIdx = mainArray.get(0).getAsJsonObject();
-				int currTreeIdx = jTreeIdx.get(program_id).getAsInt();
-				astStore.put(currTreeIdx, new HashMap<Integer, ASTNode>());
-				
-				for (int i = 1; i < mainArray.size(); i++) {
-					JsonObject ndObject = mainArray.get(i).getAsJsonObject();
-					
-					Integer ndIdx = ndObject.get(nodeIdx).getAsInt();
-					
-					String ndParentIdxStr = ndObject.get(parentIdx).getAsString();
-					Integer ndParentIdx = ndParentIdxStr.equals("") ? -1 : Integer.parseInt(ndParentIdxStr);
-					
-					String ndPrevValueIdxStr = ndObject.get(prevNodeValueIdx).getAsString();
-					Integer ndPrevValueIdx = ndPrevValueIdxStr.equals("") ? -1 : Integer.parseInt(ndPrevValueIdxStr);
-					
-					String ndPrevLeafIdxStr = ndObject.get(prevLeafIdx).getAsString();
-					Integer ndPrevLeafIdx = ndPrevLeafIdxStr.equals("") ? -1 : Integer.parseInt(ndPrevValueIdxStr);
-					
-					String ndNextLeafIdxStr = ndObject.get(nextLeafIdx).getAsString();
-					Integer ndNextLeafIdx = ndNextLeafIdxStr.equals("") ? -1 : Integer.parseInt(ndNextLeafIdxStr);
-					
-					String ndLeftIdxStr = ndObject.get(leftIdx).getAsString();
-					Integer ndLeftIdx = ndLeftIdxStr.equals("") ? -1 : Integer.parseInt(ndLeftIdxStr);
-					
-					String ndRightIdxStr = ndObject.get(rightIdx).getAsString();
-					Integer ndRightIdx = ndRightIdxStr.equals("") ? -1 : Integer.parseInt(ndRightIdxStr);
-					
-					String ndValue = ndObject.get(value).getAsString();
-					
-					String ndType = ndObject.get(type).getAsString();
-					
-					String ndChildrenStr = ndObject.get(childrenIdx).getAsString();
-					Integer[] ndChildren = null;
-					if (!ndChildrenStr.equals("")) {
-						String[] ndChildrenStrSplit = ndChildrenStr.substring(1,ndChildrenStr.length()-1).replaceAll("\\s+","").split(",");
-						ndChildren = new Integer[ndChildrenStrSplit.length];	
-						for (int j = 0; j < ndChildrenStrSplit.length; j++) {
-							ndChildren[j] = Integer.parseInt(ndChildrenStrSplit[j]);
-						}	
-					} else {
-						ndChildren = new Integer[0];
+			jsonReader = new JsonReader(new TopLevelSeparatorReader(new BufferedReader(new FileReader(fileLoc), 1 << 16)));
+			jsonReader.setStrictness(Strictness.LENIENT);
+
+			int treeCnt = 0;
+			while (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+				jsonReader.beginArray();
+				if (jsonReader.peek() == JsonToken.BEGIN_ARRAY) {
+					// array of trees
+					while (jsonReader.hasNext()) {
+						jsonReader.beginArray();
+						parseTree(jsonReader, treeCnt++, astStore);
 					}
-					
-					astStore.get(currTreeIdx).put(ndIdx, new ASTNode(ndIdx, ndParentIdx, ndPrevLeafIdx, ndNextLeafIdx, ndLeftIdx, ndRightIdx, ndPrevValueIdx, /*ndPrevTypeIdx,*/ ndChildren, ndType, ndValue));
+					jsonReader.endArray();
+				} else {
+					parseTree(jsonReader, treeCnt++, astStore);
 				}
-				
 			}
 		} catch (FileNotFoundException e) {
 			// TODO Auto-generated catch block
@@ -109,6 +84,162 @@ class ASTParser {
 				}
 			}
 		}
-		return astStore;	
+		return astStore;
+	}
+
+	// Reads elements of one tree, the opening bracket has already been consumed
+	private void parseTree(JsonReader jsonReader, int treePos, HashMap<Integer, ASTTree> astStore) throws IOException {
+		ASTAugmenter augmenter = new ASTAugmenter(symbols, leafLinks);
+		int currTreeIdx = treePos;
+		while (jsonReader.hasNext()) {
+			if (jsonReader.peek() != JsonToken.BEGIN_OBJECT) {
+				// plain program id of a raw AST
+				currTreeIdx = jsonReader.nextInt();
+				continue;
+			}
+
+			int ndIdx = -1;
+			String ndType = "";
+			String ndValue = "";
+			int ndChildrenCnt = -1;
+			boolean isProgramId = false;
+			jsonReader.beginObject();
+			while (jsonReader.hasNext()) {
+				String name = jsonReader.nextName();
+				if (name.equals(nodeIdx)) {
+					ndIdx = jsonReader.nextInt();
+				} else if (name.equals(type)) {
+					ndType = nextString(jsonReader);
+				} else if (name.equals(value)) {
+					ndValue = nextString(jsonReader);
+				} else if (name.equals(childrenIdx)) {
+					ndChildrenCnt = nextChildren(jsonReader);
+				} else if (name.equals(program_id)) {
+					currTreeIdx = jsonReader.nextInt();
+					isProgramId = true;
+				} else {
+					jsonReader.skipValue();
+				}
+			}
+			jsonReader.endObject();
+
+			if (!isProgramId)
+				augmenter.addNode(ndIdx, symbols.intern(ndType), symbols.intern(ndValue), ndChildrenCnt < 0 ? null : ndChildren, ndChildrenCnt);
+		}
+		jsonReader.endArray();
+
+		if (augmenter.getNodeCnt() > 0)
+			astStore.put(currTreeIdx, augmenter.build());
+	}
+
+	private static String nextString(JsonReader jsonReader) throws IOException {
+		switch (jsonReader.peek()) {
+		case NULL:
+			jsonReader.nextNull();
+			return "";
+		case BOOLEAN:
+			return String.valueOf(jsonReader.nextBoolean());
+		default:
+			return jsonReader.nextString();
+		}
+	}
+
+	// Reads children into ndChildren and returns their count, -1 if the node is a leaf.
+	// Children are either a JSON array or, in augmented files, a string such as "[1, 6, 11]"
+	private int nextChildren(JsonReader jsonReader) throws IOException {
+		int cnt = 0;
+		switch (jsonReader.peek()) {
+		case NULL:
+			jsonReader.nextNull();
+			return -1;
+		case BEGIN_ARRAY:
+			jsonReader.beginArray();
+			while (jsonReader.hasNext()) {
+				addChild(cnt++, jsonReader.nextInt());
+			}
+			jsonReader.endArray();
+			return cnt;
+		default:
+			String str = jsonReader.nextString();
+			int curr = -1;
+			for (int i = 0; i < str.length(); i++) {
+				char c = str.charAt(i);
+				if (c >= '0' && c <= '9') {
+					curr = (curr < 0 ? 0 : curr * 10) + (c - '0');
+				} else if (curr >= 0) {
+					addChild(cnt++, curr);
+					curr = -1;
+				}
+			}
+			if (curr >= 0)
+				addChild(cnt++, curr);
+			return str.equals("") ? -1 : cnt;
+		}
+	}
+
+	private void addChild(int pos, int child) {
+		if (pos == ndChildren.length)
+			ndChildren = Arrays.copyOf(ndChildren, pos * 2);
+		ndChildren[pos] = child;
+	}
+
+	/*
+	 * Lenient JsonReader accepts several top-level values separated by whitespace only,
+	 * this reader turns commas between top-level values into spaces.
+	 */
+	private static class TopLevelSeparatorReader extends FilterReader {
+
+		private int depth = 0;
+		private boolean inString = false;
+		private boolean escaped = false;
+
+		TopLevelSeparatorReader(Reader in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int c = super.read();
+			return c < 0 ? c : filter((char) c);
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			int n = super.read(cbuf, off, len);
+			for (int i = off; i < off + n; i++) {
+				cbuf[i] = filter(cbuf[i]);
+			}
+			return n;
+		}
+
+		private char filter(char c) {
+			if (inString) {
+				if (escaped)
+					escaped = false;
+				else if (c == '\\')
+					escaped = true;
+				else if (c == '"')
+					inString = false;
+				return c;
+			}
+			switch (c) {
+			case '"':
+				inString = true;
+				break;
+			case '[':
+			case '{':
+				depth++;
+				break;
+			case ']':
+			case '}':
+				depth--;
+				break;
+			case ',':
+				if (depth == 0)
+					return ' ';
+				break;
+			}
+			return c;
+		}
 	}
 }
@@ -0,0 +1,224 @@
+package ast_utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Binary snapshot of augmented ASTs, written once and opened with FileChannel.map, so loading
+ * takes neither parsing nor heap. All fields are big endian ints, the file is an int array:
+ *  header:     MAGIC, FORMAT_VERSION, tree count, string count, string bytes length
+ *  strings:    string count+1 byte offsets, UTF-8 bytes of all strings (padded to 4 bytes)
+ *  directory:  tree count * (tree id, size, children count, offset of the columns)
+ *  columns:    per tree, as read by MappedASTTree
+ * Types and values are ids into the string table, every distinct string is stored once
+ * and id 0 is "" (SymbolTable.EMPTY).
+ */
+public class ASTSnapshot {
+
+	private static final int MAGIC = 0x53594e41; // "SYNA"
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_LEN = 5;
+	private static final int DIR_ENTRY_LEN = 4;
+
+	public static boolean isSnapshot(String fileLoc) {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(fileLoc))) {
+			return in.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public static void write(String fileLoc, Map<Integer, ASTTree> trees) throws IOException {
+		// string table
+		LinkedHashMap<String, Integer> stringIds = new LinkedHashMap<>();
+		stringIds.put("", 0);
+		for (ASTTree tree : trees.values()) {
+			for (int nd = 0; nd < tree.getSize(); nd++) {
+				if (!tree.contains(nd))
+					continue;
+				intern(stringIds, tree.getNdType(nd));
+				intern(stringIds, tree.getNdValue(nd));
+			}
+		}
+		ArrayList<byte[]> stringBytes = new ArrayList<>(stringIds.size());
+		int bytesLen = 0;
+		for (String str : stringIds.keySet()) {
+			byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+			stringBytes.add(bytes);
+			bytesLen += bytes.length;
+		}
+		int paddedBytesLen = (bytesLen + 3) & ~3;
+
+		// tree columns follow the directory
+		long offset = HEADER_LEN + stringIds.size() + 1 + paddedBytesLen / 4 + (long) DIR_ENTRY_LEN * trees.size();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileLoc), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(trees.size());
+			out.writeInt(stringIds.size());
+			out.writeInt(bytesLen);
+
+			int stringOffset = 0;
+			for (byte[] bytes : stringBytes) {
+				out.writeInt(stringOffset);
+				stringOffset += bytes.length;
+			}
+			out.writeInt(stringOffset);
+			for (byte[] bytes : stringBytes) {
+				out.write(bytes);
+			}
+			for (int i = bytesLen; i < paddedBytesLen; i++) {
+				out.writeByte(0);
+			}
+
+			for (Map.Entry<Integer, ASTTree> en : trees.entrySet()) {
+				ASTTree tree = en.getValue();
+				int childCnt = getChildCnt(tree);
+				// the whole file has to be addressable by an int view of a single mapping
+				if (offset + MappedASTTree.getColumnsLength(tree.getSize(), childCnt) > Integer.MAX_VALUE / 4)
+					throw new IOException("ASTs are too large for a single snapshot");
+				out.writeInt(en.getKey());
+				out.writeInt(tree.getSize());
+				out.writeInt(childCnt);
+				out.writeInt((int) offset);
+				offset += MappedASTTree.getColumnsLength(tree.getSize(), childCnt);
+			}
+
+			for (ASTTree tree : trees.values()) {
+				writeColumns(out, tree, stringIds);
+			}
+		}
+	}
+
+	public static HashMap<Integer, ASTTree> read(String fileLoc) throws IOException {
+		HashMap<Integer, ASTTree> trees = new HashMap<>();
+		// the mapping stays valid after the channel is closed
+		try (FileChannel channel = FileChannel.open(Paths.get(fileLoc), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Snapshot is too large to be mapped: " + fileLoc);
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			IntBuffer ints = buf.asIntBuffer();
+			if (ints.get(0) != MAGIC || ints.get(1) != FORMAT_VERSION)
+				throw new IOException("Not an AST snapshot: " + fileLoc);
+			int treeCnt = ints.get(2);
+			int stringCnt = ints.get(3);
+			int bytesLen = ints.get(4);
+
+			int bytesBase = (HEADER_LEN + stringCnt + 1) * 4;
+			StringTable strings = new StringTable(buf, ints, HEADER_LEN, bytesBase, stringCnt);
+			int dirBase = bytesBase / 4 + ((bytesLen + 3) & ~3) / 4;
+			for (int i = 0; i < treeCnt; i++) {
+				int entry = dirBase + i * DIR_ENTRY_LEN;
+				trees.put(ints.get(entry), new MappedASTTree(ints, strings, ints.get(entry + 1), ints.get(entry + 3)));
+			}
+		}
+		return trees;
+	}
+
+	private static void intern(LinkedHashMap<String, Integer> stringIds, String str) {
+		if (!stringIds.containsKey(str))
+			stringIds.put(str, stringIds.size());
+	}
+
+	private static int getChildCnt(ASTTree tree) {
+		int childCnt = 0;
+		for (int nd = 0; nd < tree.getSize(); nd++) {
+			childCnt += tree.getNdChildCnt(nd);
+		}
+		return childCnt;
+	}
+
+	private static void writeColumns(DataOutputStream out, ASTTree tree, LinkedHashMap<String, Integer> stringIds) throws IOException {
+		int size = tree.getSize();
+		for (int nd = 0; nd < size; nd++) {
+			out.writeInt(tree.getNdParentIdx(nd));
+		}
+		for (int nd = 0; nd < size; nd++) {
+			out.writeInt(tree.getNdLeftIdx(nd));
+		}
+		for (int nd = 0; nd < size; nd++) {
+			out.writeInt(tree.getNdRightIdx(nd));
+		}
+		for (int nd = 0; nd < size; nd++) {
+			out.writeInt(tree.getNdPrevLeafIdx(nd));
+		}
+		for (int nd = 0; nd < size; nd++) {
+			out.writeInt(tree.getNdNextLeafIdx(nd));
+		}
+		for (int nd = 0; nd < size; nd++) {
+			out.writeInt(tree.getNdPrevValue(nd));
+		}
+		for (int nd = 0; nd < size; nd++) {
+			out.writeInt(tree.contains(nd) ? stringIds.get(tree.getNdType(nd)) : -1);
+		}
+		for (int nd = 0; nd < size; nd++) {
+			out.writeInt(tree.contains(nd) ? stringIds.get(tree.getNdValue(nd)) : -1);
+		}
+
+		int childOffset = 0;
+		for (int nd = 0; nd < size; nd++) {
+			out.writeInt(childOffset);
+			childOffset += tree.getNdChildCnt(nd);
+		}
+		out.writeInt(childOffset);
+		for (int nd = 0; nd < size; nd++) {
+			int childCnt = tree.getNdChildCnt(nd);
+			for (int i = 0; i < childCnt; i++) {
+				out.writeInt(tree.getNdChildIdx(nd, i));
+			}
+		}
+	}
+
+	// String table of a mapped snapshot, strings are decoded on first use
+	static final class StringTable extends SymbolTable {
+		private final ByteBuffer buf;
+		private final IntBuffer ints;
+		private final int offsetBase;
+		private final int bytesBase;
+		private final String[] decoded;
+
+		StringTable(ByteBuffer buf, IntBuffer ints, int offsetBase, int bytesBase, int stringCnt) {
+			this.buf = buf;
+			this.ints = ints;
+			this.offsetBase = offsetBase;
+			this.bytesBase = bytesBase;
+			this.decoded = new String[stringCnt];
+		}
+
+		@Override
+		public int size() {
+			return decoded.length;
+		}
+
+		@Override
+		public String getSymbol(int id) {
+			// racing decodes of the same id produce equal strings
+			String str = decoded[id];
+			if (str == null) {
+				int from = ints.get(offsetBase + id);
+				byte[] bytes = new byte[ints.get(offsetBase + id + 1) - from];
+				for (int i = 0; i < bytes.length; i++) {
+					bytes[i] = buf.get(bytesBase + from + i);
+				}
+				str = new String(bytes, StandardCharsets.UTF_8);
+				decoded[id] = str;
+			}
+			return str;
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package ast_utils;
+
+/*
+ * Single step operations over a tree (e.g. the DSL ops), numbered 0 ... getStepCnt()-1.
+ */
+public interface ASTStep {
+
+	int getStepCnt();
+
+	// Node reached from ndIdx by the step, -1 if there is none.
+	// Steps staying on the node (Nop) should return -1 as well, they never reach anything new
+	int apply(int ndIdx, int step, ASTTree tree);
+}
@@ -1,120 +1,150 @@
 package ast_utils;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
 
 public class ASTStore {
 
-	private HashMap<Integer, HashMap<Integer, ASTNode>> store;
+	private HashMap<Integer, ASTTree> store;
 	private int treeIdx;
+	// Bumped on every change of the trees or of the current tree, so that anything
+	// derived from the current tree (e.g. encoded DSL tables) knows when to rebuild
+	private int version = 0;
 	
 	public ASTStore(String fileLoc) {
+		this(fileLoc, false);
+	}
+	
+	// leafLinks computes actual previous/next leaf links for parsed trees (see ASTAugmenter),
+	// snapshots keep the links they were written with
+	public ASTStore(String fileLoc, boolean leafLinks) {
 		store = new HashMap<>();
-		init(fileLoc);
+		init(fileLoc, leafLinks);
+	}
+	
+	private ASTStore(HashMap<Integer, ASTTree> store, int treeIdx) {
+		this.store = store;
+		this.treeIdx = treeIdx;
 	}
 	
+	// Accepts both raw ASTs (programs.json), which are augmented while loading,
+	// ASTs previously augmented by python/JSONGenerator.py and binary snapshots (ASTSnapshot),
+	// which are memory mapped instead of parsed
 	public void init(String fileLoc) {
-		ASTParser parser = new ASTParser();
-		store = parser.parse(fileLoc);
+		init(fileLoc, false);
+	}
+	
+	public void init(String fileLoc, boolean leafLinks) {
+		if (ASTSnapshot.isSnapshot(fileLoc)) {
+			try {
+				store = ASTSnapshot.read(fileLoc);
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+				store = new HashMap<>();
+			}
+		} else {
+			ASTParser parser = new ASTParser(leafLinks);
+			store = parser.parse(fileLoc);
+		}
+		version++;
+	}
+	
+	public void saveSnapshot(String fileLoc) throws IOException {
+		ASTSnapshot.write(fileLoc, store);
 	}
 	
 	public void setTreeIdx(int treeIdx) {
+		if (this.treeIdx != treeIdx)
+			version++;
 		this.treeIdx = treeIdx;
 	}
+	
+	public int getVersion() {
+		return version;
+	}
+	
+	// Store sharing the parsed trees, but with its own tree cursor set to treeIdx,
+	// so that several trees can be worked on concurrently
+	public ASTStore getTreeView(int treeIdx) {
+		return new ASTStore(store, treeIdx);
+	}
+	
+	// Dense view of the current tree with int accessors, to be used in hot loops
+	public ASTTree getTree() {
+		return store.get(treeIdx);
+	}
+	
+	public ASTTree getTree(int treeIdx) {
+		return store.get(treeIdx);
+	}
 
 	public Integer getNdIdx(Integer ndIdx) {
-		ASTNode res = store.get(treeIdx).get(ndIdx);
-		if (res == null)
+		if (!store.get(treeIdx).contains(ndIdx))
 			return -1;
 		else
-			return res.ndIdx;
+			return ndIdx;
 	}
 	
 	public Integer getNdParentIdx(Integer ndIdx) {
-		ASTNode res = store.get(treeIdx).get(ndIdx);
-		if (res == null)
-			return -1;
-		else
-			return res.ndParentIdx;
+		return store.get(treeIdx).getNdParentIdx(ndIdx);
 	}
 	
 	public Integer getNdPrevLeafIdx(Integer ndIdx) {
-		ASTNode res = store.get(treeIdx).get(ndIdx);
-		if (res == null)
-			return -1;
-		else
-			return res.ndPrevLeaf;
+		return store.get(treeIdx).getNdPrevLeafIdx(ndIdx);
 	}
 	public Integer getNdNextLeafIdx(Integer ndIdx) {
-		ASTNode res = store.get(treeIdx).get(ndIdx);
-		if (res == null)
-			return -1;
-		else
-			return res.ndNextLeaf;
+		return store.get(treeIdx).getNdNextLeafIdx(ndIdx);
 	}
 	public Integer getNdLeftIdx(Integer ndIdx) {
-		ASTNode res = store.get(treeIdx).get(ndIdx);
-		if (res == null)
-			return -1;
-		else
-		return res.ndLeft;
+		return store.get(treeIdx).getNdLeftIdx(ndIdx);
 	}
 	public Integer getNdRightIdx(Integer ndIdx) {
-		ASTNode res = store.get(treeIdx).get(ndIdx);
-		if (res == null)
-			return -1;
-		else
-		return res.ndRight;
+		return store.get(treeIdx).getNdRightIdx(ndIdx);
 	}
 	
 	public Integer[] getNdChildrenIdx(Integer ndIdx) {
-		ASTNode res = store.get(treeIdx).get(ndIdx);
-		if (res == null)
-			return new Integer[0];
-		else
-			return res.ndChildrenIdx;
+		ASTTree tree = store.get(treeIdx);
+		Integer[] res = new Integer[tree.getNdChildCnt(ndIdx)];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = tree.getNdChildIdx(ndIdx, i);
+		}
+		return res;
 	}
 	
 	public Integer getNdDownFirstIdx(Integer ndIdx) {
-		Integer[] children = store.get(treeIdx).get(ndIdx).ndChildrenIdx;
-		if (children.length == 0)
-			return -1;
-		else
-			return children[0];
+		return store.get(treeIdx).getNdDownFirstIdx(ndIdx);
 	}
 	
 	public Integer getNdDownLastIdx(Integer ndIdx) {
-		Integer[] children = store.get(treeIdx).get(ndIdx).ndChildrenIdx;
-		if (children.length == 0)
-			return -1;
-		else
-			return children[children.length-1];
+		return store.get(treeIdx).getNdDownLastIdx(ndIdx);
 	}
 	
 	
 	public String getNdType(Integer ndIdx) {
-		ASTNode res = store.get(treeIdx).get(ndIdx);
-		if (res == null)
-			return "";
-		else
-			return res.ndType;
+		return store.get(treeIdx).getNdType(ndIdx);
 	}
 	
 	public String getNdValue(Integer ndIdx) {
-		ASTNode res = store.get(treeIdx).get(ndIdx);
-		if (res == null)
-			return "";
-		else
-			return res.ndValue;
+		return store.get(treeIdx).getNdValue(ndIdx);
+	}
+	
+	// Interned type/value ids, comparable between nodes of trees loaded together
+	public int getNdTypeId(int ndIdx) {
+		return store.get(treeIdx).getNdTypeId(ndIdx);
+	}
+	
+	public int getNdValueId(int ndIdx) {
+		return store.get(treeIdx).getNdValueId(ndIdx);
+	}
+	
+	public SymbolTable getSymbols() {
+		return store.get(treeIdx).getSymbols();
 	}
 	
 	public Integer getNdPrevValue(Integer ndIdx) {
-		ASTNode res = store.get(treeIdx).get(ndIdx);
-		if (res == null)
-			return -1;
-		else
-			return res.ndPrevValueIdx;
+		return store.get(treeIdx).getNdPrevValue(ndIdx);
 	}
 	
 	/*public Integer getNdPrevType(Integer ndIdx) {
@@ -125,7 +155,8 @@ public class ASTStore {
 			return res.ndPrevTypeIdx;
 	}*/
 
-	public Iterator<Map.Entry<Integer, ASTNode>> getNdIterator() {
-		return store.get(treeIdx).entrySet().iterator();
+	// Iterates over indices of all nodes of the current tree
+	public Iterator<Integer> getNdIterator() {
+		return store.get(treeIdx).getNdIterator();
 	}
 }
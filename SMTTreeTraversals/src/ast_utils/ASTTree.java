@@ -0,0 +1,99 @@
+package ast_utils;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * Single AST with int accessors, to be used in hot loops.
+ * Node indices range from 0 to getSize()-1, missing nodes (holes in the index range)
+ * and out of range indices behave as -1 for all links and "" for type and value.
+ * Types and values are interned, ids index the SymbolTable shared by all trees of a store.
+ * Implemented on the heap (ArrayASTTree, built from JSON) and on a memory mapped
+ * snapshot file (MappedASTTree, see ASTSnapshot).
+ */
+public abstract class ASTTree {
+
+	private ReachabilityIndex reachability = null;
+	private NodeFeatures features = null;
+
+	// Upper bound (exclusive) of node indices in the tree
+	public abstract int getSize();
+
+	public abstract boolean contains(int ndIdx);
+
+	public abstract int getNdParentIdx(int ndIdx);
+
+	public abstract int getNdLeftIdx(int ndIdx);
+
+	public abstract int getNdRightIdx(int ndIdx);
+
+	public abstract int getNdPrevLeafIdx(int ndIdx);
+
+	public abstract int getNdNextLeafIdx(int ndIdx);
+
+	public abstract int getNdPrevValue(int ndIdx);
+
+	public abstract int getNdChildCnt(int ndIdx);
+
+	public abstract int getNdChildIdx(int ndIdx, int childPos);
+
+	public abstract int getNdDownFirstIdx(int ndIdx);
+
+	public abstract int getNdDownLastIdx(int ndIdx);
+
+	public abstract SymbolTable getSymbols();
+
+	public abstract int getNdTypeId(int ndIdx);
+
+	public abstract int getNdValueId(int ndIdx);
+
+	public String getNdType(int ndIdx) {
+		return getSymbols().getSymbol(getNdTypeId(ndIdx));
+	}
+
+	public String getNdValue(int ndIdx) {
+		return getSymbols().getSymbol(getNdValueId(ndIdx));
+	}
+
+	// Reachability index of the tree, kept as long as it is asked for with the same steps and bound
+	public synchronized ReachabilityIndex getReachabilityIndex(ASTStep steps, int maxSteps) {
+		if (reachability == null || reachability.getSteps() != steps || reachability.getMaxSteps() != maxSteps)
+			reachability = new ReachabilityIndex(this, steps, maxSteps);
+		return reachability;
+	}
+
+	// Feature columns of the nodes, computed on the first call
+	public synchronized NodeFeatures getNodeFeatures() {
+		if (features == null)
+			features = new NodeFeatures(this);
+		return features;
+	}
+
+	// Iterates over indices of the existing nodes in ascending order
+	public Iterator<Integer> getNdIterator() {
+		return new Iterator<Integer>() {
+			private int next = advance(0);
+
+			private int advance(int from) {
+				while (from < getSize() && !contains(from)) {
+					from++;
+				}
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next < getSize();
+			}
+
+			@Override
+			public Integer next() {
+				if (next >= getSize())
+					throw new NoSuchElementException();
+				int res = next;
+				next = advance(next + 1);
+				return res;
+			}
+		};
+	}
+}
@@ -0,0 +1,122 @@
+package ast_utils;
+
+/*
+ * Dense, structure-of-arrays representation of a single AST on the heap.
+ * Node indices are used directly as array indices.
+ * Children are stored in CSR form: children of nd are
+ * children[childOffset[nd]] ... children[childOffset[nd+1]-1]
+ * Trees are built by ASTAugmenter.
+ */
+final class ArrayASTTree extends ASTTree {
+
+	private final int size;
+	private final boolean[] exists;
+	private final int[] parent;
+	private final int[] left;
+	private final int[] right;
+	private final int[] prevLeaf;
+	private final int[] nextLeaf;
+	private final int[] prevValue;
+	private final int[] childOffset;
+	private final int[] children;
+	private final int[] type;
+	private final int[] value;
+	private final SymbolTable symbols;
+
+	ArrayASTTree(int size, boolean[] exists, int[] parent, int[] left, int[] right,
+			int[] prevLeaf, int[] nextLeaf, int[] prevValue, int[] childOffset,
+			int[] children, int[] type, int[] value, SymbolTable symbols) {
+		this.size = size;
+		this.exists = exists;
+		this.parent = parent;
+		this.left = left;
+		this.right = right;
+		this.prevLeaf = prevLeaf;
+		this.nextLeaf = nextLeaf;
+		this.prevValue = prevValue;
+		this.childOffset = childOffset;
+		this.children = children;
+		this.type = type;
+		this.value = value;
+		this.symbols = symbols;
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public boolean contains(int ndIdx) {
+		return ndIdx >= 0 && ndIdx < size && exists[ndIdx];
+	}
+
+	@Override
+	public int getNdParentIdx(int ndIdx) {
+		return ndIdx < 0 || ndIdx >= size ? -1 : parent[ndIdx];
+	}
+
+	@Override
+	public int getNdLeftIdx(int ndIdx) {
+		return ndIdx < 0 || ndIdx >= size ? -1 : left[ndIdx];
+	}
+
+	@Override
+	public int getNdRightIdx(int ndIdx) {
+		return ndIdx < 0 || ndIdx >= size ? -1 : right[ndIdx];
+	}
+
+	@Override
+	public int getNdPrevLeafIdx(int ndIdx) {
+		return ndIdx < 0 || ndIdx >= size ? -1 : prevLeaf[ndIdx];
+	}
+
+	@Override
+	public int getNdNextLeafIdx(int ndIdx) {
+		return ndIdx < 0 || ndIdx >= size ? -1 : nextLeaf[ndIdx];
+	}
+
+	@Override
+	public int getNdPrevValue(int ndIdx) {
+		return ndIdx < 0 || ndIdx >= size ? -1 : prevValue[ndIdx];
+	}
+
+	@Override
+	public int getNdChildCnt(int ndIdx) {
+		return ndIdx < 0 || ndIdx >= size ? 0 : childOffset[ndIdx + 1] - childOffset[ndIdx];
+	}
+
+	@Override
+	public int getNdChildIdx(int ndIdx, int childPos) {
+		return children[childOffset[ndIdx] + childPos];
+	}
+
+	@Override
+	public int getNdDownFirstIdx(int ndIdx) {
+		if (ndIdx < 0 || ndIdx >= size || childOffset[ndIdx] == childOffset[ndIdx + 1])
+			return -1;
+		return children[childOffset[ndIdx]];
+	}
+
+	@Override
+	public int getNdDownLastIdx(int ndIdx) {
+		if (ndIdx < 0 || ndIdx >= size || childOffset[ndIdx] == childOffset[ndIdx + 1])
+			return -1;
+		return children[childOffset[ndIdx + 1] - 1];
+	}
+
+	@Override
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	@Override
+	public int getNdTypeId(int ndIdx) {
+		return ndIdx < 0 || ndIdx >= size ? SymbolTable.EMPTY : type[ndIdx];
+	}
+
+	@Override
+	public int getNdValueId(int ndIdx) {
+		return ndIdx < 0 || ndIdx >= size ? SymbolTable.EMPTY : value[ndIdx];
+	}
+}
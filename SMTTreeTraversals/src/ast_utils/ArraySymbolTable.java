@@ -0,0 +1,45 @@
+package ast_utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ * Symbol table on the heap, filled by interning while trees are parsed.
+ */
+final class ArraySymbolTable extends SymbolTable {
+
+	private final HashMap<String, Integer> ids = new HashMap<>();
+	private String[] symbols = new String[64];
+	private int cnt = 0;
+
+	ArraySymbolTable() {
+		intern("");
+	}
+
+	int intern(String symbol) {
+		Integer id = ids.get(symbol);
+		if (id != null)
+			return id;
+		if (cnt == symbols.length)
+			symbols = Arrays.copyOf(symbols, cnt * 2);
+		symbols[cnt] = symbol;
+		ids.put(symbol, cnt);
+		return cnt++;
+	}
+
+	@Override
+	public int size() {
+		return cnt;
+	}
+
+	@Override
+	public String getSymbol(int id) {
+		return symbols[id];
+	}
+
+	@Override
+	public int getId(String symbol) {
+		Integer id = ids.get(symbol);
+		return id == null ? -1 : id;
+	}
+}
@@ -0,0 +1,130 @@
+package ast_utils;
+
+import java.nio.IntBuffer;
+
+/*
+ * AST read straight from a memory mapped snapshot (see ASTSnapshot), nothing but the
+ * column offsets lives on the heap. Columns are consecutive in the int view of the file:
+ * parent, left, right, prevLeaf, nextLeaf, prevValue, type, value (size ints each),
+ * childOffset (size+1 ints) and children. Missing nodes have type id -1 in the snapshot.
+ */
+final class MappedASTTree extends ASTTree {
+
+	private static final int COL_PARENT = 0;
+	private static final int COL_LEFT = 1;
+	private static final int COL_RIGHT = 2;
+	private static final int COL_PREV_LEAF = 3;
+	private static final int COL_NEXT_LEAF = 4;
+	private static final int COL_PREV_VALUE = 5;
+	private static final int COL_TYPE = 6;
+	private static final int COL_VALUE = 7;
+	static final int COL_CNT = 8;
+
+	private final IntBuffer ints;
+	private final ASTSnapshot.StringTable strings;
+	private final int size;
+	private final int base;
+	private final int childOffsetBase;
+	private final int childrenBase;
+
+	MappedASTTree(IntBuffer ints, ASTSnapshot.StringTable strings, int size, int base) {
+		this.ints = ints;
+		this.strings = strings;
+		this.size = size;
+		this.base = base;
+		this.childOffsetBase = base + COL_CNT * size;
+		this.childrenBase = childOffsetBase + size + 1;
+	}
+
+	// Number of ints the columns of a tree take in the snapshot
+	static int getColumnsLength(int size, int childCnt) {
+		return COL_CNT * size + size + 1 + childCnt;
+	}
+
+	private int column(int col, int ndIdx) {
+		return ndIdx < 0 || ndIdx >= size ? -1 : ints.get(base + col * size + ndIdx);
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public boolean contains(int ndIdx) {
+		return column(COL_TYPE, ndIdx) != -1;
+	}
+
+	@Override
+	public int getNdParentIdx(int ndIdx) {
+		return column(COL_PARENT, ndIdx);
+	}
+
+	@Override
+	public int getNdLeftIdx(int ndIdx) {
+		return column(COL_LEFT, ndIdx);
+	}
+
+	@Override
+	public int getNdRightIdx(int ndIdx) {
+		return column(COL_RIGHT, ndIdx);
+	}
+
+	@Override
+	public int getNdPrevLeafIdx(int ndIdx) {
+		return column(COL_PREV_LEAF, ndIdx);
+	}
+
+	@Override
+	public int getNdNextLeafIdx(int ndIdx) {
+		return column(COL_NEXT_LEAF, ndIdx);
+	}
+
+	@Override
+	public int getNdPrevValue(int ndIdx) {
+		return column(COL_PREV_VALUE, ndIdx);
+	}
+
+	@Override
+	public int getNdChildCnt(int ndIdx) {
+		if (ndIdx < 0 || ndIdx >= size)
+			return 0;
+		return ints.get(childOffsetBase + ndIdx + 1) - ints.get(childOffsetBase + ndIdx);
+	}
+
+	@Override
+	public int getNdChildIdx(int ndIdx, int childPos) {
+		return ints.get(childrenBase + ints.get(childOffsetBase + ndIdx) + childPos);
+	}
+
+	@Override
+	public int getNdDownFirstIdx(int ndIdx) {
+		if (getNdChildCnt(ndIdx) == 0)
+			return -1;
+		return ints.get(childrenBase + ints.get(childOffsetBase + ndIdx));
+	}
+
+	@Override
+	public int getNdDownLastIdx(int ndIdx) {
+		if (getNdChildCnt(ndIdx) == 0)
+			return -1;
+		return ints.get(childrenBase + ints.get(childOffsetBase + ndIdx + 1) - 1);
+	}
+
+	@Override
+	public SymbolTable getSymbols() {
+		return strings;
+	}
+
+	@Override
+	public int getNdTypeId(int ndIdx) {
+		int id = column(COL_TYPE, ndIdx);
+		return id == -1 ? SymbolTable.EMPTY : id;
+	}
+
+	@Override
+	public int getNdValueId(int ndIdx) {
+		int id = column(COL_VALUE, ndIdx);
+		return id == -1 ? SymbolTable.EMPTY : id;
+	}
+}
@@ -0,0 +1,88 @@
+package ast_utils;
+
+import java.util.Arrays;
+
+/*
+ * Per node feature columns of a tree, computed once in a single pass and read by branch
+ * criteria: type id, grandparent type id, value id and depth (root is 0). Columns are
+ * indexed by node index, missing nodes and out of range indices have type, grandparent
+ * type and value "" (SymbolTable.EMPTY) and depth -1. The id of the CallExpression type is
+ * resolved once, criteria compare it to the type columns.
+ */
+public final class NodeFeatures {
+
+	private final SymbolTable symbols;
+	private final int[] type;
+	private final int[] grandparentType;
+	private final int[] value;
+	private final int[] depth;
+	private final int callExpressionType;
+
+	public NodeFeatures(ASTTree tree) {
+		int size = tree.getSize();
+		symbols = tree.getSymbols();
+		callExpressionType = symbols.getId("CallExpression");
+		type = new int[size];
+		grandparentType = new int[size];
+		value = new int[size];
+		depth = new int[size];
+		for (int nd = 0; nd < size; nd++) {
+			type[nd] = tree.getNdTypeId(nd);
+			grandparentType[nd] = tree.getNdTypeId(tree.getNdParentIdx(tree.getNdParentIdx(nd)));
+			value[nd] = tree.getNdValueId(nd);
+			depth[nd] = -1;
+		}
+
+		// depths are filled in from the first ancestor with a known depth down
+		int[] path = new int[16];
+		for (int nd = 0; nd < size; nd++) {
+			if (depth[nd] != -1 || !tree.contains(nd))
+				continue;
+			int len = 0;
+			int curr = nd;
+			while (curr != -1 && depth[curr] == -1) {
+				if (len == path.length)
+					path = Arrays.copyOf(path, len * 2);
+				path[len++] = curr;
+				curr = tree.getNdParentIdx(curr);
+			}
+			int d = curr == -1 ? 0 : depth[curr] + 1;
+			for (int i = len - 1; i >= 0; i--) {
+				depth[path[i]] = d++;
+			}
+		}
+	}
+
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	// Type id of CallExpression, -1 if no node of the tree has it
+	public int getCallExpressionType() {
+		return callExpressionType;
+	}
+
+	public int getSize() {
+		return type.length;
+	}
+
+	public int getType(int ndIdx) {
+		return inRange(ndIdx) ? type[ndIdx] : SymbolTable.EMPTY;
+	}
+
+	public int getGrandparentType(int ndIdx) {
+		return inRange(ndIdx) ? grandparentType[ndIdx] : SymbolTable.EMPTY;
+	}
+
+	public int getValue(int ndIdx) {
+		return inRange(ndIdx) ? value[ndIdx] : SymbolTable.EMPTY;
+	}
+
+	public int getDepth(int ndIdx) {
+		return inRange(ndIdx) ? depth[ndIdx] : -1;
+	}
+
+	private boolean inRange(int ndIdx) {
+		return ndIdx >= 0 && ndIdx < type.length;
+	}
+}
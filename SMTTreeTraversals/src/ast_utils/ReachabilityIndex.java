@@ -0,0 +1,155 @@
+package ast_utils;
+
+import java.util.Arrays;
+
+/*
+ * k-step reachability of a tree: for a src node, every node reachable by at most maxSteps
+ * steps, the smallest number of steps needed and the bitmap of steps a path of at most
+ * maxSteps steps may start with. Entries are computed lazily per src node, layer by layer:
+ * layer d holds the nodes reached by exactly d steps with the first steps reaching them.
+ * Entries are compact (sorted node array plus parallel distance and bitmap arrays).
+ * Node indices outside of the tree are never reached.
+ */
+public final class ReachabilityIndex {
+
+	private final ASTTree tree;
+	private final ASTStep steps;
+	private final int maxSteps;
+	private final Entry[] entries;
+
+	// scratch space of the computation, guarded by the index
+	private int[] dist;
+	private int[] firstSteps;
+	private int[] layerSteps;
+	private int[] nextLayerSteps;
+	private int[] layer;
+	private int[] nextLayer;
+	private int[] reached;
+
+	public ReachabilityIndex(ASTTree tree, ASTStep steps, int maxSteps) {
+		if (steps.getStepCnt() > 31)
+			throw new IllegalArgumentException("Step bitmaps hold at most 31 steps");
+		this.tree = tree;
+		this.steps = steps;
+		this.maxSteps = Math.max(maxSteps, 0);
+		this.entries = new Entry[tree.getSize()];
+	}
+
+	public ASTStep getSteps() {
+		return steps;
+	}
+
+	public int getMaxSteps() {
+		return maxSteps;
+	}
+
+	// Nodes reachable from src (src included) in ascending order, empty if src isn't in the tree
+	public int[] getReachableNds(int srcNdIdx) {
+		Entry entry = getEntry(srcNdIdx);
+		return entry == null ? new int[0] : entry.nds;
+	}
+
+	// Smallest number of steps from src to dst, -1 if it is more than maxSteps
+	public int getDistance(int srcNdIdx, int dstNdIdx) {
+		Entry entry = getEntry(srcNdIdx);
+		int pos = entry == null ? -1 : Arrays.binarySearch(entry.nds, dstNdIdx);
+		return pos < 0 ? -1 : entry.dist[pos];
+	}
+
+	public boolean isReachable(int srcNdIdx, int dstNdIdx) {
+		return getDistance(srcNdIdx, dstNdIdx) != -1;
+	}
+
+	// Bitmap of the steps (bit i for step i) starting a path of at most maxSteps steps from src to dst
+	public int getFirstSteps(int srcNdIdx, int dstNdIdx) {
+		Entry entry = getEntry(srcNdIdx);
+		int pos = entry == null ? -1 : Arrays.binarySearch(entry.nds, dstNdIdx);
+		return pos < 0 ? 0 : entry.firstSteps[pos];
+	}
+
+	private synchronized Entry getEntry(int srcNdIdx) {
+		if (!tree.contains(srcNdIdx))
+			return null;
+		if (entries[srcNdIdx] == null)
+			entries[srcNdIdx] = compute(srcNdIdx);
+		return entries[srcNdIdx];
+	}
+
+	private Entry compute(int src) {
+		int size = tree.getSize();
+		if (dist == null) {
+			dist = new int[size];
+			firstSteps = new int[size];
+			layerSteps = new int[size];
+			nextLayerSteps = new int[size];
+			layer = new int[size];
+			nextLayer = new int[size];
+			reached = new int[size];
+			Arrays.fill(dist, -1);
+		}
+
+		int reachedCnt = 0;
+		dist[src] = 0;
+		reached[reachedCnt++] = src;
+		int layerCnt = 1;
+		layer[0] = src;
+		for (int d = 1; d <= maxSteps && layerCnt > 0; d++) {
+			int nextCnt = 0;
+			for (int i = 0; i < layerCnt; i++) {
+				int nd = layer[i];
+				for (int step = 0; step < steps.getStepCnt(); step++) {
+					int next = steps.apply(nd, step, tree);
+					if (next < 0 || next >= size)
+						continue;
+					if (nextLayerSteps[next] == 0)
+						nextLayer[nextCnt++] = next;
+					nextLayerSteps[next] |= d == 1 ? 1 << step : layerSteps[nd];
+				}
+			}
+			for (int i = 0; i < layerCnt; i++) {
+				layerSteps[layer[i]] = 0;
+			}
+			for (int i = 0; i < nextCnt; i++) {
+				int nd = nextLayer[i];
+				if (dist[nd] == -1) {
+					dist[nd] = d;
+					reached[reachedCnt++] = nd;
+				}
+				firstSteps[nd] |= nextLayerSteps[nd];
+				layerSteps[nd] = nextLayerSteps[nd];
+				nextLayerSteps[nd] = 0;
+			}
+			int[] tmp = layer;
+			layer = nextLayer;
+			nextLayer = tmp;
+			layerCnt = nextCnt;
+		}
+		for (int i = 0; i < layerCnt; i++) {
+			layerSteps[layer[i]] = 0;
+		}
+
+		Entry entry = new Entry(reachedCnt);
+		Arrays.sort(reached, 0, reachedCnt);
+		for (int i = 0; i < reachedCnt; i++) {
+			int nd = reached[i];
+			entry.nds[i] = nd;
+			entry.dist[i] = (byte) Math.min(dist[nd], Byte.MAX_VALUE);
+			entry.firstSteps[i] = firstSteps[nd];
+			dist[nd] = -1;
+			firstSteps[nd] = 0;
+		}
+		return entry;
+	}
+
+	private static final class Entry {
+		final int[] nds;
+		final byte[] dist;
+		final int[] firstSteps;
+
+		Entry(int cnt) {
+			nds = new int[cnt];
+			dist = new byte[cnt];
+			firstSteps = new int[cnt];
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package ast_utils;
+
+import java.util.HashMap;
+
+/*
+ * Dense int ids of the node types and values of a set of trees, interned at load time
+ * so that trees store and compare ints only. Id EMPTY is "", which is also the type and
+ * value of missing nodes. Ids are only comparable between trees sharing the table.
+ * Implemented on the heap (ArraySymbolTable) and on a mapped snapshot (see ASTSnapshot).
+ */
+public abstract class SymbolTable {
+
+	public static final int EMPTY = 0;
+
+	// reverse index, built on the first lookup
+	private HashMap<String, Integer> ids = null;
+
+	public abstract int size();
+
+	public abstract String getSymbol(int id);
+
+	// Id of the symbol, -1 if no tree has it
+	public int getId(String symbol) {
+		HashMap<String, Integer> index = getIndex();
+		Integer id = index.get(symbol);
+		return id == null ? -1 : id;
+	}
+
+	private synchronized HashMap<String, Integer> getIndex() {
+		if (ids == null) {
+			ids = new HashMap<>(size() * 2);
+			for (int id = 0; id < size(); id++) {
+				ids.put(getSymbol(id), id);
+			}
+		}
+		return ids;
+	}
+}
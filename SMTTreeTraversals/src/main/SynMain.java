@@ -5,19 +5,32 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
 
 import ast_utils.ASTStore;
+import ast_utils.ASTTree;
 
 import syn_core.BranchClassifier;
+import syn_core.BranchCriteria;
+import syn_core.CompiledProgram;
 import syn_core.DSLHelper;
+import syn_core.ProgramArtifact;
+import syn_core.ProgramCache;
 import syn_core.SynEngine;
+import syn_core.SynEnginePortfolio;
+import syn_core.SynResult;
 import utils.Pair;
 import org.apache.commons.cli.*;
 
@@ -28,15 +41,31 @@ public class SynMain {
 	public static int startOpNum = 4;
 	
 	private static boolean baselineMode = false;
+	private static boolean bidirectionalMode = false;
+	private static boolean portfolioMode = false;
+	private static boolean portfolioBaseline = false;
 	private static boolean efficientLookup = false;
 	public static boolean resultsOnly = false;
 	public static boolean statsOnly = true;
+	public static boolean incrementalSolving = false;
+	public static boolean bitvectorEncoding = false;
+	public static boolean oneHotOps = false;
+	public static boolean cegisMode = false;
+	private static boolean leafLinks = false;
+	private static int threadCnt = 1;
+	public static int branchThreadCnt = 1;
+	private static ProgramCache programCache = null;
+	private static boolean serverMode = false;
+	private static int serverPort = -1;
+	private static SynServer server = null;
+	private static String fNameSavePrograms = null;
+	private static String fNameLoadPrograms = null;
+	private static String fNameSnapshot = null;
+	private static ArrayList<SynResult> trainedResults = new ArrayList<>();
 
-	private static String dirNameAugmented = "./asts_augmented/";
 	private static String dirName ="./tests/tests_1/";
 	private static String altDirName ="";
 	private static String fNameMain = "programs.json";
-	private static String fNameAst = "programs_augmented.json";
 	private static String fNameTrain = "train";
 	private static String fNameTest = "test";
 	private static String fNameCheck = "expected";
@@ -49,11 +78,27 @@ public class SynMain {
 	private static final String optFNameTrain = "ftrain";
 	private static final String optFNameTest = "ftest";
 	private static final String optFNameCheck = "fcheck";
-	private static final String optDirAug = "diraug";
 	private static final String optStrBaseline = "baseline";
+	private static final String optStrBidirectional = "bidirectional";
+	private static final String optStrPortfolio = "portfolio";
+	private static final String optStrPortfolioBaseline = "portfoliobaseline";
 	private static final String optStrSlowLookup = "slowlookup";
+	private static final String optStrBitvector = "bitvector";
+	private static final String optStrOneHot = "onehot";
+	private static final String optStrCegis = "cegis";
 	private static final String optStrStatsOnly = "statsonly";
 	private static final String optStrResultsOnly = "resultsonly";
+	private static final String optStrIncremental = "incremental";
+	private static final String optStrLeafLinks = "leaflinks";
+	private static final String optThreads = "threads";
+	private static final String optBranchThreads = "branchthreads";
+	private static final String optCriteria = "criteria";
+	private static final String optCacheDir = "cachedir";
+	private static final String optStrServer = "server";
+	private static final String optPort = "port";
+	private static final String optSavePrograms = "saveprograms";
+	private static final String optLoadPrograms = "loadprograms";
+	private static final String optSaveSnapshot = "savesnapshot";
 
 	private static HashMap<Integer, ArrayList<Pair<Integer, Integer>>> trainSrcDstPairs;
 	private static HashMap<Integer, ArrayList<Integer>> trainSrcVals;
@@ -62,9 +107,6 @@ public class SynMain {
 	private static ASTStore astStore;
 	
 	
-	private static BranchClassifier bc;
-	private static HashMap<Pair<Integer, Object>, TreeMap<Integer, Integer>> program;
-	
 	@SuppressWarnings("deprecation")
 	public static void main(String[] argv) {
 		
@@ -75,68 +117,190 @@ public class SynMain {
 		// Start the timer
 		long startTime = System.currentTimeMillis();
 		
-		// Augment the json from the testdir with extra information about nodes (previous_id, prev_leaf...)
-		String command = "python ./python/JSONGenerator.py" + " " + fNameMain + " " + dirNameAugmented;
-		try {
-			Runtime.getRuntime().exec(command).waitFor();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		// Parse AST from JSON, nodes are augmented with extra information (previous_id, prev_leaf...) while loading
+		astStore = new ASTStore(fNameMain, leafLinks);
+		if (fNameSnapshot != null) {
+			try {
+				astStore.saveSnapshot(fNameSnapshot);
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
 		}
 		
-		// Parse augmented AST from JSON
-		astStore = new ASTStore(fNameAst);
-		
 		// Parse the <src,dst> pairs from training, test, and validate files within the test dir
-		parseTrainingData();
-		parseTestData();
-		if (!resultsOnly)
-			parseCheckData();
+		if (fNameLoadPrograms == null)
+			parseTrainingData();
+		if (serverMode) {
+			server = new SynServer(astStore);
+		} else {
+			parseTestData();
+			if (!resultsOnly)
+				parseCheckData();
+		}
 		
 		// For every JavaScript program in AST, find a SynTree program which satisfies all the <src,dst> pairs
+		if (fNameLoadPrograms != null) {
+			loadPrograms(startTime);
+		} else if (threadCnt > 1) {
+			trainTreesParallel(startTime);
+		} else {
+			Iterator it = trainSrcDstPairs.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry en = (Entry) it.next();
+				Integer treeIdx = (Integer) en.getKey();
+				ArrayList<Pair<Integer, Integer>> srcDstPairs = (ArrayList<Pair<Integer, Integer>>) en.getValue();
+				
+				collectTreeResult(trainTree(treeIdx, astStore.getTreeView(treeIdx), srcDstPairs), startTime);
+			}
+		}
+		
+		if (fNameSavePrograms != null) {
+			try {
+				ProgramArtifact.save(fNameSavePrograms, trainedResults);
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}
+		
+		// Answer queries with the trained programs until the input ends
+		if (serverMode) {
+			try {
+				if (serverPort >= 0)
+					server.serveSocket(serverPort);
+				else
+					server.serveStdin();
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	// Programs trained by an earlier run take the place of training
+	private static void loadPrograms(long startTime) {
+		TreeMap<Integer, SynResult> results;
+		try {
+			results = ProgramArtifact.load(fNameLoadPrograms, astStore);
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return;
+		}
+		for (SynResult result : results.values()) {
+			collectTreeResult(result, startTime);
+		}
+	}
+	
+	// Trains every tree as an independent task, results are tested and shown in the order of the trees
+	private static void trainTreesParallel(long startTime) {
+		ExecutorService executor = Executors.newFixedThreadPool(threadCnt);
+		ArrayList<Future<SynResult>> results = new ArrayList<>();
 		Iterator it = trainSrcDstPairs.entrySet().iterator();
 		while (it.hasNext()) {
 			Map.Entry en = (Entry) it.next();
-			Integer treeIdx = (Integer) en.getKey();
-			ArrayList<Pair<Integer, Integer>> srcDstPairs = (ArrayList<Pair<Integer, Integer>>) en.getValue();
-			astStore.setTreeIdx(treeIdx);
+			final Integer treeIdx = (Integer) en.getKey();
+			final ArrayList<Pair<Integer, Integer>> srcDstPairs = (ArrayList<Pair<Integer, Integer>>) en.getValue();
+			final ASTStore treeStore = astStore.getTreeView(treeIdx);
 			
-			if (!resultsOnly)
-				System.out.printf("Training program (baseline=%b, opmin=%d, opmax=%d, efficient (makes sense if smt)=%b, testdir=%s...\n\n", 
-							baselineMode, startOpNum, maxOpNum, efficientLookup, dirName);
-			if (SynEngine.trainProgram(treeIdx, astStore, efficientLookup, false, null, srcDstPairs)) {
-				testProgram(false);
-				if (!altDirName.equals("")) {
-					testProgramWithNewAst(false);
+			results.add(executor.submit(new Callable<SynResult>() {
+				@Override
+				public SynResult call() {
+					return trainTree(treeIdx, treeStore, srcDstPairs);
 				}
-			} else {
-				if (SynEngine.trainBranchedProgram(treeIdx, (bc=new BranchClassifier(astStore, srcDstPairs)), astStore, efficientLookup, srcDstPairs)) {
-					testProgram(true);
-					if (!altDirName.equals("")) {
-						testProgramWithNewAst(true);
-					}
-				} else {
-					if (!resultsOnly)
-						System.out.println("Couldn't find a satisfying program...");
+			}));
+		}
+		executor.shutdown();
+		
+		for (Future<SynResult> result : results) {
+			try {
+				collectTreeResult(result.get(), startTime);
+			} catch (InterruptedException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			} catch (ExecutionException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	// Tries to find a straight line program first, and a branched program if there is none
+	private static SynResult trainTree(int treeIdx, ASTStore treeStore, ArrayList<Pair<Integer, Integer>> srcDstPairs) {
+		// pairs no program of at most maxOpNum ops satisfies are reported and left out of training
+		ArrayList<Pair<Integer, Integer>> unreachablePairs = SynEngine.getUnreachablePairs(treeStore, srcDstPairs);
+		if (unreachablePairs.size() > 0) {
+			if (!resultsOnly) {
+				for (Pair<Integer, Integer> pair : unreachablePairs) {
+					System.out.printf("Pair (%d,%d) of tree %d is unreachable within %d ops, skipped\n", pair.first, pair.second, treeIdx, maxOpNum);
 				}
+				System.out.println();
 			}
-			
+			srcDstPairs = new ArrayList<>(srcDstPairs);
+			srcDstPairs.removeAll(unreachablePairs);
+			if (srcDstPairs.isEmpty())
+				return new SynResult(treeIdx);
+		}
+		
+		if (programCache != null) {
+			SynResult cached = programCache.load(treeIdx, treeStore, srcDstPairs);
+			if (cached != null) {
+				if (!resultsOnly)
+					System.out.printf("Program of tree %d loaded from cache...\n\n", treeIdx);
+				return cached;
+			}
+		}
+		
+		SynResult result = new SynResult(treeIdx);
+		if (!resultsOnly)
+			System.out.printf("Training program (baseline=%b, bidirectional=%b, portfolio=%b, opmin=%d, opmax=%d, efficient (makes sense if smt)=%b, bitvector=%b, onehot=%b, cegis=%b, incremental=%b, testdir=%s...\n\n", 
+						baselineMode, bidirectionalMode, portfolioMode, startOpNum, maxOpNum, efficientLookup, bitvectorEncoding, oneHotOps, cegisMode, incrementalSolving, dirName);
+		if (!SynEngine.trainProgram(treeIdx, treeStore, efficientLookup, false, null, srcDstPairs, result)) {
+			if (!SynEngine.trainBranchedProgram(treeIdx, new BranchClassifier(treeStore, srcDstPairs), treeStore, efficientLookup, srcDstPairs, result)) {
+				// drop the bodies of a partially trained branched program
+				result.branchedModelInterpretation.clear();
+			}
+		}
+		if (programCache != null)
+			programCache.store(result, treeStore, srcDstPairs);
+		return result;
+	}
+	
+	// In server mode the program is kept for answering queries, otherwise it is tested right away
+	private static void collectTreeResult(SynResult result, long startTime) {
+		if (fNameSavePrograms != null)
+			trainedResults.add(result);
+		if (serverMode) {
+			if (result.isFound())
+				server.addProgram(result.treeIdx, CompiledProgram.compile(result));
+		} else {
+			showTreeResult(result, startTime);
+		}
+	}
+	
+	private static void showTreeResult(SynResult result, long startTime) {
+		if (result.isFound()) {
+			testProgram(result, astStore);
+			if (!altDirName.equals("")) {
+				testProgramWithNewAst(result);
+			}
+		} else {
 			if (!resultsOnly)
-				printStats(startTime);
+				System.out.println("Couldn't find a satisfying program...");
 		}
 		
+		if (!resultsOnly)
+			printStats(result, startTime);
 	}
 	
-	private static void printStats(long startTime) {
+	private static void printStats(SynResult result, long startTime) {
 
 		// print time
-		if (SynEngine.modelInterpretation != null) {
-			System.out.printf("No. of instr.: %d\n",SynEngine.modelInterpretation.size());
-		} else if (SynEngine.branchedModelInterpretation.size() > 0) {
-			Iterator it = SynEngine.branchedModelInterpretation.entrySet().iterator();
+		if (result.modelInterpretation != null) {
+			System.out.printf("No. of instr.: %d\n",result.modelInterpretation.size());
+		} else if (result.branchedModelInterpretation.size() > 0) {
+			Iterator it = result.branchedModelInterpretation.entrySet().iterator();
 			ArrayList<Integer> instrCnt = new ArrayList();
 			while (it.hasNext()) {
 				Map.Entry en = (Map.Entry) it.next();
@@ -165,14 +329,30 @@ public class SynMain {
 		Option optNameTrain = OptionBuilder.hasArg().create(optFNameTrain);
 		Option optNameTest = OptionBuilder.hasArg().create(optFNameTest);
 		Option optNameCheck = OptionBuilder.hasArg().create(optFNameCheck);
-		Option optAugDir = OptionBuilder.hasArg().create(optDirAug);
 		Option optMin = OptionBuilder.hasArg().create(optOpMin);
 		Option optMax = OptionBuilder.hasArg().create(optOpMax);
 		Option optAltTestDir = OptionBuilder.hasArg().create(optAltDirTest);
+		Option optThreadCnt = OptionBuilder.hasArg().create(optThreads);
+		Option optBranchThreadCnt = OptionBuilder.hasArg().create(optBranchThreads);
+		Option optBranchCriteria = OptionBuilder.hasArg().create(optCriteria);
+		Option optProgramCacheDir = OptionBuilder.hasArg().create(optCacheDir);
+		Option optServerPort = OptionBuilder.hasArg().create(optPort);
+		Option optSaveProgramFile = OptionBuilder.hasArg().create(optSavePrograms);
+		Option optLoadProgramFile = OptionBuilder.hasArg().create(optLoadPrograms);
+		Option optSnapshotFile = OptionBuilder.hasArg().create(optSaveSnapshot);
 		Option optBaseline = new Option(optStrBaseline, false, "Enable baseline mode.");
+		Option optBidirectional = new Option(optStrBidirectional, false, "Enable bidirectional (meet in the middle) search mode.");
+		Option optPortfolio = new Option(optStrPortfolio, false, "Race all op. counts in parallel, each on its own SMT context.");
+		Option optPortfolioBaseline = new Option(optStrPortfolioBaseline, false, "Race the baseline enumerator together with the op. counts (implies --portfolio).");
 		Option optSlowLookup = new Option(optStrSlowLookup, false, "Enable slow DSL function application in SMT.");
+		Option optBitvector = new Option(optStrBitvector, false, "Encode node indices and DSL op switches as bitvectors in SMT.");
+		Option optOneHot = new Option(optStrOneHot, false, "Select DSL ops by one-hot switches over shared DSL functions in SMT.");
+		Option optCegis = new Option(optStrCegis, false, "Add training pairs to the SMT formula only as counterexamples (CEGIS).");
 		Option optStatsOnly = new Option(optStrStatsOnly, false, "Only display statistics of runtime.");
 		Option optResultsOnly = new Option(optStrResultsOnly, false, "Only display resulting values of applying the program.");
+		Option optIncremental = new Option(optStrIncremental, false, "Keep one SMT solver alive across all op. counts.");
+		Option optLeafLinks = new Option(optStrLeafLinks, false, "Compute actual previous/next leaf links (PrevLeaf/NextLeaf always fail otherwise).");
+		Option optServer = new Option(optStrServer, false, "Answer <tree_id> <src> queries from stdin after training.");
 		
 		Options options = new Options();
 		CommandLineParser parser = new GnuParser();
@@ -182,14 +362,30 @@ public class SynMain {
 		options.addOption(optNameTrain);
 		options.addOption(optNameTest);
 		options.addOption(optNameCheck);
-		options.addOption(optAugDir);
 		options.addOption(optBaseline);
+		options.addOption(optBidirectional);
+		options.addOption(optPortfolio);
+		options.addOption(optPortfolioBaseline);
 		options.addOption(optMin);
 		options.addOption(optMax);
 		options.addOption(optSlowLookup);
+		options.addOption(optBitvector);
+		options.addOption(optOneHot);
+		options.addOption(optCegis);
 		options.addOption(optStatsOnly);
 		options.addOption(optAltTestDir);
+		options.addOption(optThreadCnt);
+		options.addOption(optBranchThreadCnt);
+		options.addOption(optBranchCriteria);
+		options.addOption(optProgramCacheDir);
 		options.addOption(optResultsOnly);
+		options.addOption(optIncremental);
+		options.addOption(optLeafLinks);
+		options.addOption(optServer);
+		options.addOption(optServerPort);
+		options.addOption(optSaveProgramFile);
+		options.addOption(optLoadProgramFile);
+		options.addOption(optSnapshotFile);
 		try 
 		{
 			CommandLine cl = parser.parse(options, argv);
@@ -217,14 +413,18 @@ public class SynMain {
 				fNameCheck = cl.getOptionValue(optFNameCheck);
 			} 
 			
-			if (cl.hasOption(optDirAug)) {
-				dirNameAugmented = cl.getOptionValue(optDirAug);
-			} 
-			
 			baselineMode = cl.hasOption(optStrBaseline);
+			bidirectionalMode = cl.hasOption(optStrBidirectional);
+			portfolioBaseline = cl.hasOption(optStrPortfolioBaseline);
+			portfolioMode = cl.hasOption(optStrPortfolio) || portfolioBaseline;
 			efficientLookup = !cl.hasOption(optStrSlowLookup);
+			bitvectorEncoding = cl.hasOption(optStrBitvector);
+			oneHotOps = cl.hasOption(optStrOneHot);
+			cegisMode = cl.hasOption(optStrCegis);
 			statsOnly = cl.hasOption(optStrStatsOnly); 
 			resultsOnly = cl.hasOption(optStrResultsOnly); 
+			incrementalSolving = cl.hasOption(optStrIncremental);
+			leafLinks = cl.hasOption(optStrLeafLinks);
 			
 			if (cl.hasOption(optOpMin)) {
 				startOpNum = Integer.valueOf(cl.getOptionValue(optOpMin));
@@ -234,6 +434,44 @@ public class SynMain {
 				maxOpNum = Integer.valueOf(cl.getOptionValue(optOpMax));
 			} 
 			
+			if (cl.hasOption(optThreads)) {
+				threadCnt = Integer.valueOf(cl.getOptionValue(optThreads));
+			} 
+			
+			if (cl.hasOption(optBranchThreads)) {
+				branchThreadCnt = Integer.valueOf(cl.getOptionValue(optBranchThreads));
+			} 
+			
+			if (cl.hasOption(optCriteria)) {
+				if (!BranchCriteria.setEnabled(cl.getOptionValue(optCriteria)))
+					throw new ParseException("Unknown branch criterion in " + cl.getOptionValue(optCriteria) + ", known criteria: " + BranchCriteria.getNames());
+			} 
+			
+			if (cl.hasOption(optCacheDir)) {
+				programCache = new ProgramCache(cl.getOptionValue(optCacheDir));
+			} 
+			
+			if (cl.hasOption(optSavePrograms)) {
+				fNameSavePrograms = cl.getOptionValue(optSavePrograms);
+			} 
+			
+			if (cl.hasOption(optLoadPrograms)) {
+				fNameLoadPrograms = cl.getOptionValue(optLoadPrograms);
+			} 
+			
+			if (cl.hasOption(optSaveSnapshot)) {
+				fNameSnapshot = cl.getOptionValue(optSaveSnapshot);
+			} 
+			
+			if (cl.hasOption(optPort)) {
+				serverPort = Integer.valueOf(cl.getOptionValue(optPort));
+			} 
+			
+			// the answers are the only output of the server
+			serverMode = cl.hasOption(optStrServer) || serverPort >= 0;
+			if (serverMode)
+				resultsOnly = true;
+			
 		} 
 		catch (ParseException exception) {
             System.out.print("Parse error: ");
@@ -243,60 +481,47 @@ public class SynMain {
 		
 		//fNameMain = dirName + fNameMain;
 
-	 
-		fNameAst = dirNameAugmented + fNameAst;
 		//fNameTrain = dirName + fNameTrain;
 		//fNameTest = dirName + fNameTest;
 		//fNameCheck = dirName + fNameCheck;		
 		SynEngine.setBaselineMode(baselineMode);  
+		if (bidirectionalMode)
+			SynEngine.setEngine(SynEngine.ENGINE_BIDIRECTIONAL);
+		if (portfolioMode) {
+			SynEngine.setEngine(SynEngine.ENGINE_PORTFOLIO);
+			SynEnginePortfolio.setRaceBaseline(portfolioBaseline);
+		}
 	}
 	
 	@SuppressWarnings("unchecked")
-	private static void testProgram(boolean branched) {
+	private static void testProgram(SynResult result, ASTStore testStore) {
 		testSrcDstPairs = new HashMap<>();
+		CompiledProgram program = CompiledProgram.compile(result);
 		Iterator it = trainSrcVals.entrySet().iterator();
 		while (it.hasNext()) {
 			Map.Entry en = (Entry) it.next();
 			Integer treeIdx = (Integer) en.getKey();
 			ArrayList<Integer> srcNds = (ArrayList<Integer>) en.getValue();
-			for (int srcNdIdx : srcNds) {
-				TreeMap<Integer, Integer> program = null;
-				if (branched) {
-					Iterator itPrograms = SynEngine.branchedModelInterpretation.entrySet().iterator();
-					TreeMap<Integer, Integer> defaultProgram = null;
-					while (itPrograms.hasNext()) {
-						Map.Entry enPrograms = (Entry) itPrograms.next();
-						Pair<Integer, Object> branchCond = (Pair<Integer, Object>) enPrograms.getKey();
-						TreeMap<Integer, Integer> currProgram = (TreeMap<Integer, Integer>) enPrograms.getValue();
-						if (branchCond.second.toString().equals("")) {
-							defaultProgram = currProgram;
-						}
-						else if (bc.classifySrcNode(srcNdIdx, branchCond)) {
-							program = currProgram;
-							//break;
-						}
-					}
-					if (program == null) {
-						program = defaultProgram;
-					}
-				} else {
-					program = SynEngine.modelInterpretation;
-				}
-				Integer[] programDslSequence = new Integer[program.size()];
-				Iterator itProgram = program.entrySet().iterator();
-				int i = 0;
-				while (itProgram.hasNext()) {
-					Map.Entry enProgram = (Entry) itProgram.next();
-					programDslSequence[i++]=(Integer) enProgram.getValue();
-				}
-				if (!testSrcDstPairs.containsKey(treeIdx))
-					testSrcDstPairs.put(treeIdx, new ArrayList<Pair<Integer, Integer>>());
-				testSrcDstPairs.get(treeIdx).add(new Pair(srcNdIdx, DSLHelper.applyDSLSequence(srcNdIdx, astStore, programDslSequence)));
+			ASTTree tree = testStore.getTree(treeIdx);
+			int[] srcs = new int[srcNds.size()];
+			int[] dsts = new int[srcNds.size()];
+			for (int i = 0; i < srcs.length; i++) {
+				srcs[i] = srcNds.get(i);
 			}
+			if (tree == null)
+				Arrays.fill(dsts, -1);
+			else
+				program.applyAll(srcs, tree, dsts);
+			
+			ArrayList<Pair<Integer, Integer>> treeSrcDstPairs = new ArrayList<>(srcs.length);
+			for (int i = 0; i < srcs.length; i++) {
+				treeSrcDstPairs.add(new Pair(srcs[i], dsts[i]));
+			}
+			testSrcDstPairs.put(treeIdx, treeSrcDstPairs);
 		}
 		
 		if (!resultsOnly)
-			validateAndShowProgram();
+			validateAndShowProgram(result);
 		else
 			showResults();
 	}
@@ -317,22 +542,11 @@ public class SynMain {
 		}
 	}
 	
-	private static void testProgramWithNewAst(boolean branched) {
-		String command = "python ./python/JSONGenerator.py" + " " + (altDirName + "programs.json") + " " + dirNameAugmented;
-		try {
-			Runtime.getRuntime().exec(command).waitFor();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		astStore = new ASTStore(fNameAst);
-		testProgram(branched);
+	private static void testProgramWithNewAst(SynResult result) {
+		testProgram(result, new ASTStore(altDirName + "programs.json", leafLinks));
 	}
 	
-	private static void validateAndShowProgram() {
+	private static void validateAndShowProgram(SynResult result) {
 		Iterator itTest = testSrcDstPairs.entrySet().iterator();
 		Iterator itCheck = checkSrcDstPairs.entrySet().iterator();
 		
@@ -370,10 +584,10 @@ public class SynMain {
 		}
 		
 		// Show program
-		if (SynEngine.modelInterpretation != null) {
-			System.out.println(DSLHelper.programToString(SynEngine.modelInterpretation));		
-		} else if (SynEngine.branchedModelInterpretation.size() > 0) {
-			Iterator it = SynEngine.branchedModelInterpretation.entrySet().iterator();
+		if (result.modelInterpretation != null) {
+			System.out.println(DSLHelper.programToString(result.modelInterpretation));		
+		} else if (result.branchedModelInterpretation.size() > 0) {
+			Iterator it = result.branchedModelInterpretation.entrySet().iterator();
 			while (it.hasNext()) {
 				Map.Entry en = (Entry) it.next();
 				TreeMap<Integer, Integer> branch = (TreeMap<Integer, Integer>) en.getValue();
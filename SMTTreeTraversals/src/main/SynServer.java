@@ -0,0 +1,94 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import ast_utils.ASTStore;
+import ast_utils.ASTTree;
+
+import syn_core.CompiledProgram;
+
+/*
+ * Inference server: the AST store and the compiled programs of all trained trees stay in
+ * memory and queries are answered until the input ends. Protocol (one query per line):
+ *  query:  <tree_id> <src>
+ *  answer: <tree_id> <src> <dst>
+ * dst is -1 if the tree has no program or the program can't be applied. Answers are buffered
+ * per batch and flushed once the client has no more queries pending or sends an empty line,
+ * so a client can pipe a whole test set at once or talk to the server line by line.
+ */
+public class SynServer {
+
+	private final ASTStore astStore;
+	private final HashMap<Integer, CompiledProgram> programs = new HashMap<>();
+
+	public SynServer(ASTStore astStore) {
+		this.astStore = astStore;
+	}
+
+	public void addProgram(int treeIdx, CompiledProgram program) {
+		programs.put(treeIdx, program);
+	}
+
+	public void serveStdin() throws IOException {
+		serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+	}
+
+	// Local clients only, one connection at a time
+	public void serveSocket(int port) throws IOException {
+		try (ServerSocket server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+			System.err.printf("Serving on %s:%d\n", server.getInetAddress().getHostAddress(), server.getLocalPort());
+			while (true) {
+				try (Socket client = server.accept()) {
+					serve(new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8)), new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8));
+				} catch (IOException e) {
+					// a broken connection doesn't stop the server
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private void serve(BufferedReader rdr, Writer out) throws IOException {
+		PrintWriter writer = new PrintWriter(out, false);
+		String line;
+		while ((line = rdr.readLine()) != null) {
+			line = line.trim();
+			if (!line.equals(""))
+				writer.println(answer(line));
+			if (line.equals("") || !rdr.ready())
+				writer.flush();
+		}
+		writer.flush();
+	}
+
+	private String answer(String query) {
+		String[] val = query.split("\\s+");
+		if (val.length != 2)
+			return query + " -1";
+		int treeIdx;
+		int srcIdx;
+		try {
+			treeIdx = Integer.parseInt(val[0]);
+			srcIdx = Integer.parseInt(val[1]);
+		} catch (NumberFormatException e) {
+			return query + " -1";
+		}
+
+		int dstIdx = -1;
+		CompiledProgram program = programs.get(treeIdx);
+		ASTTree tree = astStore.getTree(treeIdx);
+		if (program != null && tree != null && tree.contains(srcIdx))
+			dstIdx = program.apply(srcIdx, tree);
+		return treeIdx + " " + srcIdx + " " + dstIdx;
+	}
+}
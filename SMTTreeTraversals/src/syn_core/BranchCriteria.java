@@ -0,0 +1,215 @@
+package syn_core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import ast_utils.NodeFeatures;
+import ast_utils.SymbolTable;
+
+/*
+ * Registry of branch criteria. Criteria are looked up by id (conditions of trained programs)
+ * and by name, the enabled criteria are tried by BranchClassifier in the order they are
+ * enabled in. Built in are the two original criteria, which are enabled by default, and
+ * criteria on single src features (type, grandparent type, depth).
+ */
+public class BranchCriteria {
+
+	private static final LinkedHashMap<String, BranchCriterion> byName = new LinkedHashMap<>();
+	private static final HashMap<Integer, BranchCriterion> byId = new HashMap<>();
+	private static ArrayList<BranchCriterion> enabled = new ArrayList<>();
+
+	static {
+		register(new BranchCriterion() {
+			@Override
+			public int getId() {
+				return BranchClassifier.CRIT_SRC_DST_VALUE;
+			}
+
+			@Override
+			public String getName() {
+				return "SRC_DST_HAVE_SAME_VALUE";
+			}
+
+			@Override
+			public String getCondPrefix() {
+				return "(SrcVal.and.DstVal)==";
+			}
+
+			// pairs with different src and dst values share the "" branch
+			@Override
+			public void getPairKeys(NodeFeatures features, int[] srcs, int[] dsts, int[] keys) {
+				for (int i = 0; i < srcs.length; i++) {
+					int srcValue = features.getValue(srcs[i]);
+					keys[i] = srcValue == features.getValue(dsts[i]) ? srcValue : SymbolTable.EMPTY;
+				}
+			}
+
+			@Override
+			public int getSrcKey(NodeFeatures features, int srcNdIdx) {
+				return features.getValue(srcNdIdx);
+			}
+
+			@Override
+			public Object getCondValue(NodeFeatures features, int key) {
+				return features.getSymbols().getSymbol(key);
+			}
+
+			@Override
+			public int getCondKey(NodeFeatures features, Object condValue) {
+				return features.getSymbols().getId(condValue.toString());
+			}
+		});
+		register(new SrcCriterion(BranchClassifier.CRIT_SRC_IS_IN_CALL_EXPRESSION, "SRC_IN_CALL_EXPRESSION", "(Src.in.CallExpression)==") {
+			@Override
+			public int getSrcKey(NodeFeatures features, int srcNdIdx) {
+				return features.getGrandparentType(srcNdIdx) == features.getCallExpressionType() ? 1 : 0;
+			}
+
+			@Override
+			public void getPairKeys(NodeFeatures features, int[] srcs, int[] dsts, int[] keys) {
+				int callExpressionType = features.getCallExpressionType();
+				for (int i = 0; i < srcs.length; i++) {
+					keys[i] = features.getGrandparentType(srcs[i]) == callExpressionType ? 1 : 0;
+				}
+			}
+
+			@Override
+			public Object getCondValue(NodeFeatures features, int key) {
+				return key == 1 ? Boolean.TRUE : Boolean.FALSE;
+			}
+
+			@Override
+			public int getCondKey(NodeFeatures features, Object condValue) {
+				return Boolean.parseBoolean(condValue.toString()) ? 1 : 0;
+			}
+		});
+		register(new SymbolCriterion(BranchClassifier.CRIT_SRC_TYPE, "SRC_TYPE", "(SrcType)==") {
+			@Override
+			public int getSrcKey(NodeFeatures features, int srcNdIdx) {
+				return features.getType(srcNdIdx);
+			}
+		});
+		register(new SymbolCriterion(BranchClassifier.CRIT_SRC_GRANDPARENT_TYPE, "SRC_GRANDPARENT_TYPE", "(SrcGrandparentType)==") {
+			@Override
+			public int getSrcKey(NodeFeatures features, int srcNdIdx) {
+				return features.getGrandparentType(srcNdIdx);
+			}
+		});
+		register(new SrcCriterion(BranchClassifier.CRIT_SRC_DEPTH, "SRC_DEPTH", "(SrcDepth)==") {
+			@Override
+			public int getSrcKey(NodeFeatures features, int srcNdIdx) {
+				return features.getDepth(srcNdIdx);
+			}
+
+			// conditions are stored as strings (see ProgramArtifact)
+			@Override
+			public Object getCondValue(NodeFeatures features, int key) {
+				return String.valueOf(key);
+			}
+
+			@Override
+			public int getCondKey(NodeFeatures features, Object condValue) {
+				try {
+					return Integer.parseInt(condValue.toString());
+				} catch (NumberFormatException e) {
+					return -1;
+				}
+			}
+		});
+
+		enabled.add(byId.get(BranchClassifier.CRIT_SRC_DST_VALUE));
+		enabled.add(byId.get(BranchClassifier.CRIT_SRC_IS_IN_CALL_EXPRESSION));
+	}
+
+	public static synchronized void register(BranchCriterion criterion) {
+		if (byId.containsKey(criterion.getId()) || byName.containsKey(criterion.getName()))
+			throw new IllegalArgumentException("Branch criterion is already registered: " + criterion.getName());
+		byId.put(criterion.getId(), criterion);
+		byName.put(criterion.getName(), criterion);
+	}
+
+	// Registered criterion of the id, null if there is none
+	public static synchronized BranchCriterion get(int id) {
+		return byId.get(id);
+	}
+
+	public static synchronized BranchCriterion get(String name) {
+		return byName.get(name);
+	}
+
+	public static synchronized ArrayList<String> getNames() {
+		return new ArrayList<>(byName.keySet());
+	}
+
+	public static synchronized ArrayList<BranchCriterion> getEnabled() {
+		return new ArrayList<>(enabled);
+	}
+
+	// Enables the criteria of the comma separated names (in their order), false if a name is unknown
+	public static synchronized boolean setEnabled(String names) {
+		ArrayList<BranchCriterion> criteria = new ArrayList<>();
+		for (String name : names.split(",")) {
+			BranchCriterion criterion = byName.get(name.trim());
+			if (criterion == null)
+				return false;
+			if (!criteria.contains(criterion))
+				criteria.add(criterion);
+		}
+		enabled = criteria;
+		return true;
+	}
+
+	// Criterion on a feature of the src node only, the key of a pair is the key of its src
+	public static abstract class SrcCriterion implements BranchCriterion {
+		private final int id;
+		private final String name;
+		private final String condPrefix;
+
+		public SrcCriterion(int id, String name, String condPrefix) {
+			this.id = id;
+			this.name = name;
+			this.condPrefix = condPrefix;
+		}
+
+		@Override
+		public int getId() {
+			return id;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String getCondPrefix() {
+			return condPrefix;
+		}
+
+		@Override
+		public void getPairKeys(NodeFeatures features, int[] srcs, int[] dsts, int[] keys) {
+			for (int i = 0; i < srcs.length; i++) {
+				keys[i] = getSrcKey(features, srcs[i]);
+			}
+		}
+	}
+
+	// Src criterion on an interned type or value, conditions are the symbols
+	public static abstract class SymbolCriterion extends SrcCriterion {
+
+		public SymbolCriterion(int id, String name, String condPrefix) {
+			super(id, name, condPrefix);
+		}
+
+		@Override
+		public Object getCondValue(NodeFeatures features, int key) {
+			return features.getSymbols().getSymbol(key);
+		}
+
+		@Override
+		public int getCondKey(NodeFeatures features, Object condValue) {
+			return features.getSymbols().getId(condValue.toString());
+		}
+	}
+}
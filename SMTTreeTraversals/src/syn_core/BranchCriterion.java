@@ -0,0 +1,33 @@
+package syn_core;
+
+import ast_utils.NodeFeatures;
+
+/*
+ * Branch criterion: splits src/dst pairs into branches by an int key computed from the
+ * feature columns of the tree, pairs with equal keys share a branch. The condition of a
+ * branch is the criterion id together with the condition value of its key, conditions
+ * are what programs store (values are Booleans or Strings, see ProgramArtifact).
+ * Criteria are registered in BranchCriteria.
+ */
+public interface BranchCriterion {
+
+	// Id stored with the branch conditions, unique among registered criteria
+	public int getId();
+
+	// Name used to select the criterion (-criteria) and in training messages
+	public String getName();
+
+	// Condition as displayed with the program, the condition value is appended
+	public String getCondPrefix();
+
+	// Writes the key of every src/dst pair (srcs[i], dsts[i]) to keys[i]
+	public void getPairKeys(NodeFeatures features, int[] srcs, int[] dsts, int[] keys);
+
+	// Key of a test src node, the node takes the branch whose condition has the same key
+	public int getSrcKey(NodeFeatures features, int srcNdIdx);
+
+	public Object getCondValue(NodeFeatures features, int key);
+
+	// Key of a condition value, -1 if no node of the tree can have it
+	public int getCondKey(NodeFeatures features, Object condValue);
+}
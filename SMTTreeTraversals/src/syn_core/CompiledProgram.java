@@ -0,0 +1,108 @@
+package syn_core;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import utils.Pair;
+import ast_utils.ASTTree;
+
+/*
+ * Trained program compiled for evaluation: op sequences as int arrays, and for branched
+ * programs the branches in dispatch order. Dispatch follows testing of the branched map:
+ * the last branch (in map order) whose condition holds is taken, the "" branch is the default.
+ * Branch conditions are evaluated by the classifier on its own tree, the chosen branch of
+ * every node of the tree is put into a dispatch table when the program is compiled. The
+ * table isn't written afterwards, so a compiled program can be applied from several threads.
+ */
+public final class CompiledProgram {
+
+	private static final int DISPATCH_NONE = -1;
+
+	// straight line program, null if branched
+	private final int[] ops;
+
+	// branched program, conditions in reverse dispatch order (first hit wins)
+	private final ArrayList<Pair<Integer, Object>> branchConds;
+	private final int[][] branchOps;
+	private final int[] defaultOps;
+	private final BranchClassifier bc;
+	private final int[] dispatch;
+
+	private CompiledProgram(int[] ops, ArrayList<Pair<Integer, Object>> branchConds, int[][] branchOps, int[] defaultOps, BranchClassifier bc) {
+		this.ops = ops;
+		this.branchConds = branchConds;
+		this.branchOps = branchOps;
+		this.defaultOps = defaultOps;
+		this.bc = bc;
+		if (bc != null && bc.getASTStore().getTree() != null) {
+			dispatch = new int[bc.getASTStore().getTree().getSize()];
+			for (int nd = 0; nd < dispatch.length; nd++) {
+				dispatch[nd] = classify(nd);
+			}
+		} else {
+			dispatch = null;
+		}
+	}
+
+	public static CompiledProgram compile(SynResult result) {
+		if (!result.isBranched())
+			return new CompiledProgram(result.modelInterpretation == null ? null : toOps(result.modelInterpretation), null, null, null, null);
+
+		ArrayList<Pair<Integer, Object>> conds = new ArrayList<>();
+		ArrayList<int[]> bodies = new ArrayList<>();
+		int[] defaultOps = null;
+		for (Map.Entry<Pair<Integer, Object>, TreeMap<Integer, Integer>> en : result.branchedModelInterpretation.entrySet()) {
+			Pair<Integer, Object> branchCond = en.getKey();
+			int[] body = toOps(en.getValue());
+			if (branchCond.second.toString().equals("")) {
+				defaultOps = body;
+			} else {
+				conds.add(0, branchCond);
+				bodies.add(0, body);
+			}
+		}
+		return new CompiledProgram(null, conds, bodies.toArray(new int[bodies.size()][]), defaultOps, result.bc);
+	}
+
+	private static int[] toOps(TreeMap<Integer, Integer> program) {
+		int[] res = new int[program.size()];
+		int i = 0;
+		for (Integer op : program.values()) {
+			res[i++] = op;
+		}
+		return res;
+	}
+
+	// Destination of srcNdIdx in the tree, -1 if the program can't be applied
+	public int apply(int srcNdIdx, ASTTree tree) {
+		int[] body = ops;
+		if (branchConds != null) {
+			int branch = selectBranch(srcNdIdx);
+			body = branch == DISPATCH_NONE ? defaultOps : branchOps[branch];
+		}
+		if (body == null)
+			return -1;
+		return DSLHelper.applyDSLSequence(srcNdIdx, tree, body);
+	}
+
+	public void applyAll(int[] srcNdIdxs, ASTTree tree, int[] dstNdIdxs) {
+		for (int i = 0; i < srcNdIdxs.length; i++) {
+			dstNdIdxs[i] = apply(srcNdIdxs[i], tree);
+		}
+	}
+
+	private int selectBranch(int srcNdIdx) {
+		if (dispatch != null && srcNdIdx >= 0 && srcNdIdx < dispatch.length)
+			return dispatch[srcNdIdx];
+		return classify(srcNdIdx);
+	}
+
+	private int classify(int srcNdIdx) {
+		for (int i = 0; i < branchConds.size(); i++) {
+			if (bc.classifySrcNode(srcNdIdx, branchConds.get(i)))
+				return i;
+		}
+		return DISPATCH_NONE;
+	}
+}
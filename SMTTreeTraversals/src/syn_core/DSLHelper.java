@@ -1,13 +1,18 @@
 package syn_core;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 
+import main.SynMain;
+import ast_utils.ASTStep;
 import ast_utils.ASTStore;
+import ast_utils.ASTTree;
+import ast_utils.ReachabilityIndex;
 
 import com.microsoft.z3.*;
 
@@ -16,6 +21,7 @@ import com.microsoft.z3.*;
  * 	- update opCnt
  * 	- add definition as a private method,
  *  - add case to getDSLOp and update op code constants
+ *  - add its array name to DSL_ARRAY_NAMES (null if it has no lookup array)
  */
 
 public class DSLHelper {
@@ -33,30 +39,28 @@ public class DSLHelper {
 	public static final int OP_PREV_NODE_VAL = 8;	
 	public static final int OP_PREV_NODE_TYPE = 9; //this is excluded
 	
-	private static ArrayExpr arrUp;
-	private static ArrayExpr arrDownFirst;
-	private static ArrayExpr arrDownLast;
-	private static ArrayExpr arrPrevNodeVal;
-	private static ArrayExpr arrPrevLeaf;
-	private static ArrayExpr arrNextLeaf;
-	private static ArrayExpr arrLeft;
-	private static ArrayExpr arrRight;
-	//private static ArrayExpr arrPrevNodeType;
+	// Names of the DSL arrays indexed by op code, the arrays themselves are owned by
+	// the SynContext they were created in (Nop has no array)
+	private static final String[] DSL_ARRAY_NAMES = { "arrUp", "arrDownFirst", "arrDownLast", "arrLeft", "arrRight", 
+										null, "arrPrevLeaf", "arrNextLeaf", "arrPrevNodeVal" };
 	
 	
 	// Will be called to get operation definitions,
 	// during generation of the Synthesis formula
-	public static Expr getDSLOp(int opIdx, IntExpr srcNdIdx, IntExpr dstNdIdx, ASTStore astStore, Context z3Ctx, boolean efficientLookup) {
+	public static Expr getDSLOp(int opIdx, Expr srcNdIdx, Expr dstNdIdx, ASTStore astStore, SynContext z3Ctx, ArrayExpr[] dslArrays, boolean efficientLookup) {
 		Expr expr = null;
 		switch (opIdx) {
 		case OP_NOP:
 			expr = nop(srcNdIdx, dstNdIdx, z3Ctx);
 			break;
 		default:
-			if (!efficientLookup) // code DSL invocations as array accesses
-				expr = (Expr) mkNestedITE(opIdx, astStore, srcNdIdx, dstNdIdx, astStore.getNdIterator(), z3Ctx);
+			Iterator it = z3Ctx.getTableNds().iterator();
+			if (!it.hasNext()) // no node is reachable
+				expr = z3Ctx.mkEq(dstNdIdx, z3Ctx.mkNd(-1));
+			else if (!efficientLookup) // code DSL invocations as array accesses
+				expr = (Expr) mkNestedITE(opIdx, astStore, srcNdIdx, dstNdIdx, it, z3Ctx);
 			else // display a HashMap using ITE for every DSL op invocation
-				expr = (Expr) mkArrayedLookup(opIdx, astStore, srcNdIdx, dstNdIdx, z3Ctx);
+				expr = (Expr) mkArrayedLookup(opIdx, dslArrays, srcNdIdx, dstNdIdx, z3Ctx);
 				//expr = mkMacroLookup(opIdx, astStore, srcNdIdx, dstNdIdx, z3Ctx);
 			break;
 		}
@@ -64,53 +68,113 @@ public class DSLHelper {
 		return expr;
 	}
 	
-	public static BoolExpr initDSLArrays(ASTStore astStore, Context z3Ctx) {
-		Sort intType = z3Ctx.mkIntSort();
-		
-		arrUp = z3Ctx.mkArrayConst("arrUp", intType, intType);
-		arrDownFirst = z3Ctx.mkArrayConst("arrDownFirst", intType, intType);
-		arrDownLast = z3Ctx.mkArrayConst("arrDownLast", intType, intType);
-		arrPrevNodeVal = z3Ctx.mkArrayConst("arrPrevNodeVal", intType, intType);
-		//arrPrevNodeType = z3Ctx.mkArrayConst("arrPrevNodeType", intType, intType);
-		arrPrevLeaf = z3Ctx.mkArrayConst("arrPrevLeaf", intType, intType);
-		arrNextLeaf = z3Ctx.mkArrayConst("arrNextLeaf", intType, intType);
-		arrLeft = z3Ctx.mkArrayConst("arrLeft", intType, intType);
-		arrRight = z3Ctx.mkArrayConst("arrRight", intType, intType);
-		
-		Iterator it = astStore.getNdIterator();		
+	// Creates the DSL arrays into dslArrays (indexed by op code) and returns their definitions
+	public static BoolExpr initDSLArrays(ASTStore astStore, SynContext z3Ctx, ArrayExpr[] dslArrays) {
+		Sort ndSort = z3Ctx.mkNdSort();
 		
+		for (int op = 0; op < OP_CNT; op++) {
+			if (DSL_ARRAY_NAMES[op] != null)
+				dslArrays[op] = z3Ctx.mkArrayConst(DSL_ARRAY_NAMES[op], ndSort, ndSort);
+		}
+		ArrayExpr arrUp = dslArrays[OP_UP];
+		ArrayExpr arrDownFirst = dslArrays[OP_DOWN_FIRST];
+		ArrayExpr arrDownLast = dslArrays[OP_DOWN_LAST];
+		ArrayExpr arrPrevNodeVal = dslArrays[OP_PREV_NODE_VAL];
+		ArrayExpr arrPrevLeaf = dslArrays[OP_PREV_LEAF];
+		ArrayExpr arrNextLeaf = dslArrays[OP_NEXT_LEAF];
+		ArrayExpr arrLeft = dslArrays[OP_LEFT];
+		ArrayExpr arrRight = dslArrays[OP_RIGHT];
 		
-		BoolExpr result = null;
+		Iterator it = z3Ctx.getTableNds().iterator();		
 		
-		//ArrayList<BoolExpr> result = new ArrayList<>();
+		ArrayList<BoolExpr> result = new ArrayList<>();
 		while (it.hasNext()) {
 
-			Map.Entry entry = (Map.Entry)it.next();		
-			Integer srcNd = (Integer) entry.getKey();
+			Integer srcNd = (Integer) it.next();
 
-			BoolExpr stArrUp = z3Ctx.mkEq(z3Ctx.mkSelect(arrUp, z3Ctx.mkInt(srcNd)), z3Ctx.mkInt(astStore.getNdParentIdx(srcNd)));
-			BoolExpr stArrDownFirst = z3Ctx.mkEq(z3Ctx.mkSelect(arrDownFirst, z3Ctx.mkInt(srcNd)), z3Ctx.mkInt(astStore.getNdDownFirstIdx(srcNd)));
-			BoolExpr stArrDownLast = z3Ctx.mkEq(z3Ctx.mkSelect(arrDownLast, z3Ctx.mkInt(srcNd)), z3Ctx.mkInt(astStore.getNdDownLastIdx(srcNd)));
-			BoolExpr stArrPrevNodeVal = z3Ctx.mkEq(z3Ctx.mkSelect(arrPrevNodeVal, z3Ctx.mkInt(srcNd)), z3Ctx.mkInt(astStore.getNdPrevValue(srcNd)));
-			//BoolExpr stArrPrevNodeType = z3Ctx.mkEq(z3Ctx.mkSelect(arrPrevNodeType, z3Ctx.mkInt(srcNd)), z3Ctx.mkInt(astStore.getNdPrevType(srcNd)));
-			BoolExpr stArrPrevLeaf = z3Ctx.mkEq(z3Ctx.mkSelect(arrPrevLeaf, z3Ctx.mkInt(srcNd)), z3Ctx.mkInt(astStore.getNdPrevLeafIdx(srcNd)));
-			BoolExpr stArrNextLeaf = z3Ctx.mkEq(z3Ctx.mkSelect(arrNextLeaf, z3Ctx.mkInt(srcNd)), z3Ctx.mkInt(astStore.getNdNextLeafIdx(srcNd)));
-			BoolExpr stArrLeft = z3Ctx.mkEq(z3Ctx.mkSelect(arrLeft, z3Ctx.mkInt(srcNd)), z3Ctx.mkInt(astStore.getNdLeftIdx(srcNd)));
-			BoolExpr stArrRight = z3Ctx.mkEq(z3Ctx.mkSelect(arrRight, z3Ctx.mkInt(srcNd)), z3Ctx.mkInt(astStore.getNdRightIdx(srcNd)));
+			BoolExpr stArrUp = z3Ctx.mkEq(z3Ctx.mkSelect(arrUp, z3Ctx.mkNd(srcNd)), z3Ctx.mkNd(astStore.getNdParentIdx(srcNd)));
+			BoolExpr stArrDownFirst = z3Ctx.mkEq(z3Ctx.mkSelect(arrDownFirst, z3Ctx.mkNd(srcNd)), z3Ctx.mkNd(astStore.getNdDownFirstIdx(srcNd)));
+			BoolExpr stArrDownLast = z3Ctx.mkEq(z3Ctx.mkSelect(arrDownLast, z3Ctx.mkNd(srcNd)), z3Ctx.mkNd(astStore.getNdDownLastIdx(srcNd)));
+			BoolExpr stArrPrevNodeVal = z3Ctx.mkEq(z3Ctx.mkSelect(arrPrevNodeVal, z3Ctx.mkNd(srcNd)), z3Ctx.mkNd(astStore.getNdPrevValue(srcNd)));
+			//BoolExpr stArrPrevNodeType = z3Ctx.mkEq(z3Ctx.mkSelect(arrPrevNodeType, z3Ctx.mkNd(srcNd)), z3Ctx.mkNd(astStore.getNdPrevType(srcNd)));
+			BoolExpr stArrPrevLeaf = z3Ctx.mkEq(z3Ctx.mkSelect(arrPrevLeaf, z3Ctx.mkNd(srcNd)), z3Ctx.mkNd(astStore.getNdPrevLeafIdx(srcNd)));
+			BoolExpr stArrNextLeaf = z3Ctx.mkEq(z3Ctx.mkSelect(arrNextLeaf, z3Ctx.mkNd(srcNd)), z3Ctx.mkNd(astStore.getNdNextLeafIdx(srcNd)));
+			BoolExpr stArrLeft = z3Ctx.mkEq(z3Ctx.mkSelect(arrLeft, z3Ctx.mkNd(srcNd)), z3Ctx.mkNd(astStore.getNdLeftIdx(srcNd)));
+			BoolExpr stArrRight = z3Ctx.mkEq(z3Ctx.mkSelect(arrRight, z3Ctx.mkNd(srcNd)), z3Ctx.mkNd(astStore.getNdRightIdx(srcNd)));
+			
+			result.add(stArrUp);
+			result.add(stArrDownFirst);
+			result.add(stArrDownLast);
+			result.add(stArrPrevNodeVal);
+			//result.add(stArrPrevNodeType);
+			result.add(stArrPrevLeaf);
+			result.add(stArrNextLeaf);
+			result.add(stArrLeft);
+			result.add(stArrRight);
+		}
+		// one flat conjunction instead of nesting it per node
+		return z3Ctx.mkAnd(result.toArray(new BoolExpr[result.size()]));
+	}
+	
+	// Creates the DSL ops as uninterpreted functions into dslFuncs (indexed by op code, Nop has none)
+	// and returns their definitional axioms: the value on every table node of the context, and -1 on -1
+	public static BoolExpr initDSLFunctions(ASTStore astStore, SynContext z3Ctx, FuncDecl[] dslFuncs) {
+		Sort ndSort = z3Ctx.mkNdSort();
+		ASTTree tree = astStore.getTree();
+		Expr noNd = z3Ctx.mkNd(-1);
+		
+		ArrayList<BoolExpr> axioms = new ArrayList<>();
+		for (int op = 0; op < OP_CNT; op++) {
+			if (op == OP_NOP)
+				continue;
+			dslFuncs[op] = z3Ctx.mkFuncDecl("fun" + decodeDSLOp(op), ndSort, ndSort);
+			axioms.add(z3Ctx.mkEq(z3Ctx.mkApp(dslFuncs[op], noNd), noNd));
 			
-			if (result == null)
-				result = z3Ctx.mkAnd((BoolExpr) stArrUp, (BoolExpr) stArrDownFirst, (BoolExpr) stArrDownLast, (BoolExpr) stArrPrevNodeVal, /*(BoolExpr) stArrPrevNodeType, */
-						(BoolExpr) stArrPrevLeaf, (BoolExpr) stArrNextLeaf, (BoolExpr) stArrLeft, (BoolExpr) stArrRight);
-			else
-				result = z3Ctx.mkAnd(result, (BoolExpr) stArrUp, (BoolExpr) stArrDownFirst, (BoolExpr) stArrDownLast, (BoolExpr) stArrPrevNodeVal, /*(BoolExpr) stArrPrevNodeType,*/
-					(BoolExpr) stArrPrevLeaf, (BoolExpr) stArrNextLeaf, (BoolExpr) stArrLeft, (BoolExpr) stArrRight);
+			for (int srcNd : z3Ctx.getTableNds()) {
+				axioms.add(z3Ctx.mkEq(z3Ctx.mkApp(dslFuncs[op], z3Ctx.mkNd(srcNd)), z3Ctx.mkNd(applyDSLOp(srcNd, op, tree))));
+			}
+		}
+		return z3Ctx.mkAnd(axioms.toArray(new BoolExpr[axioms.size()]));
+	}
+	
+	// DSL ops as steps of the reachability index, Nop never reaches a new node
+	public static final ASTStep DSL_STEPS = new ASTStep() {
+		@Override
+		public int getStepCnt() {
+			return OP_CNT;
 		}
-		return result;
+
+		@Override
+		public int apply(int ndIdx, int step, ASTTree tree) {
+			return step == OP_NOP ? -1 : applyDSLOp(ndIdx, step, tree);
+		}
+	};
+	
+	public static ReachabilityIndex getReachabilityIndex(ASTTree tree) {
+		return tree.getReachabilityIndex(DSL_STEPS, SynMain.maxOpNum);
+	}
+	
+	// Nodes reachable from srcs by at most maxSteps DSL ops, in ascending order
+	public static ArrayList<Integer> reachableNds(ASTTree tree, Collection<Integer> srcs, int maxSteps) {
+		ReachabilityIndex index = tree.getReachabilityIndex(DSL_STEPS, maxSteps);
+		boolean[] seen = new boolean[tree.getSize()];
+		for (int src : srcs) {
+			for (int nd : index.getReachableNds(src)) {
+				if (tree.contains(nd))
+					seen[nd] = true;
+			}
+		}
+		
+		ArrayList<Integer> nds = new ArrayList<>();
+		for (int nd = 0; nd < seen.length; nd++) {
+			if (seen[nd])
+				nds.add(nd);
+		}
+		return nds;
 	}
 	
 	private static Expr mkDSLOpITE(Context z3Ctx, int opCode, Expr opVar, Iterator it, ASTStore astStore) {
-		HashMap.Entry pair = (HashMap.Entry) it.next();
-		Integer srcNdIdx = (Integer) pair.getKey();
+		Integer srcNdIdx = (Integer) it.next();
 		BoolExpr cond = z3Ctx.mkEq(opVar, z3Ctx.mkInt(srcNdIdx));
 		
 		Expr tBranch = null;
@@ -183,42 +247,13 @@ public class DSLHelper {
 		}
 	}
 	
-	private static Expr mkArrayedLookup(int opCode, ASTStore astStore, IntExpr srcVar, IntExpr dstVar, Context z3Ctx) {
-		Expr selExpr = null;
-		switch(opCode) {
-		case OP_UP:
-			selExpr = z3Ctx.mkSelect(arrUp, srcVar); 
-			break;
-		case OP_DOWN_FIRST:
-			selExpr = z3Ctx.mkSelect(arrDownFirst, srcVar);
-			break;
-		case OP_DOWN_LAST:
-			selExpr = z3Ctx.mkSelect(arrDownLast, srcVar);
-			break;
-		case OP_PREV_NODE_VAL:
-			selExpr = z3Ctx.mkSelect(arrPrevNodeVal, srcVar);
-			break;
-		/*case OP_PREV_NODE_TYPE:
-			selExpr = z3Ctx.mkSelect(arrPrevNodeType, srcVar);
-			break;*/
-		case OP_PREV_LEAF:
-			selExpr = z3Ctx.mkSelect(arrPrevLeaf, srcVar);
-			break;
-		case OP_NEXT_LEAF:
-			selExpr = z3Ctx.mkSelect(arrNextLeaf, srcVar);
-			break;
-		case OP_LEFT:
-			selExpr = z3Ctx.mkSelect(arrLeft, srcVar);
-			break;
-		case OP_RIGHT:
-			selExpr = z3Ctx.mkSelect(arrRight, srcVar);
-			break;
-		}
+	private static Expr mkArrayedLookup(int opCode, ArrayExpr[] dslArrays, Expr srcVar, Expr dstVar, SynContext z3Ctx) {
+		Expr selExpr = z3Ctx.mkSelect(dslArrays[opCode], srcVar);
 		
-		return z3Ctx.mkITE(z3Ctx.mkEq(srcVar, z3Ctx.mkInt(-1)), z3Ctx.mkEq(dstVar, z3Ctx.mkInt(-1)), z3Ctx.mkEq(dstVar, selExpr));
+		return z3Ctx.mkITE(z3Ctx.mkEq(srcVar, z3Ctx.mkNd(-1)), z3Ctx.mkEq(dstVar, z3Ctx.mkNd(-1)), z3Ctx.mkEq(dstVar, selExpr));
 	}
 	
-	/*private static Expr mkMacroLookup(int opCode, ASTStore astStore, IntExpr srcVar, IntExpr dstVar, Context z3Ctx) {
+	/*private static Expr mkMacroLookup(int opCode, ASTStore astStore, Expr srcVar, Expr dstVar, SynContext z3Ctx) {
 		Expr selExpr = null;
 		switch(opCode) {
 		case OP_UP:
@@ -250,15 +285,14 @@ public class DSLHelper {
 		return z3Ctx.mkEq(dstVar, selExpr);
 	}*/
 	
-	private static Expr nop(IntExpr srcVar, IntExpr dstVar, Context z3Ctx) {
+	private static Expr nop(Expr srcVar, Expr dstVar, SynContext z3Ctx) {
 		return z3Ctx.mkEq(dstVar, srcVar);
 	}
 	
-	private static Expr mkNestedITE(int opCode, ASTStore astStore, IntExpr srcVar, IntExpr dstVar, Iterator it, Context z3Ctx) {
+	private static Expr mkNestedITE(int opCode, ASTStore astStore, Expr srcVar, Expr dstVar, Iterator it, SynContext z3Ctx) {
 		
-		HashMap.Entry pair = (HashMap.Entry) it.next();
-		Integer srcNdIdx = (Integer) pair.getKey();
-		BoolExpr cond = z3Ctx.mkEq(srcVar, z3Ctx.mkInt(srcNdIdx));
+		Integer srcNdIdx = (Integer) it.next();
+		BoolExpr cond = z3Ctx.mkEq(srcVar, z3Ctx.mkNd(srcNdIdx));
 		
 		int dstNdVal = -1;
 		switch (opCode) {
@@ -306,10 +340,10 @@ public class DSLHelper {
 			break;
 		}
 		
-		Expr tBranch = z3Ctx.mkEq(dstVar, z3Ctx.mkInt(dstNdVal));
+		Expr tBranch = z3Ctx.mkEq(dstVar, z3Ctx.mkNd(dstNdVal));
 		if (!it.hasNext()) {
 			//it.remove();
-			Expr fBranch = z3Ctx.mkEq(dstVar, z3Ctx.mkInt(-1));
+			Expr fBranch = z3Ctx.mkEq(dstVar, z3Ctx.mkNd(-1));
 			return z3Ctx.mkITE(cond, tBranch, fBranch);
 		} else {
 			//it.remove();
@@ -319,35 +353,42 @@ public class DSLHelper {
 	}
 	
 	public static Integer applyDSLOp(Integer srcNdIdx, Integer opInd, ASTStore astStore) {
+		return applyDSLOp((int) srcNdIdx, (int) opInd, astStore.getTree());
+	}
+	
+	public static Integer applyDSLSequence(Integer srcNdIdx, ASTStore astStore, Integer... opSequence) {
+		ASTTree tree = astStore.getTree();
+		int currNd = srcNdIdx;
+		for (int i = 0; i < opSequence.length; i++) {
+			currNd = applyDSLOp(currNd, (int) opSequence[i], tree);
+			if (currNd == -1)
+				return -1;
+		}
+		return currNd;
+	}
+	
+	// Unboxed variants working directly on the dense tree, used in the hot loops
+	// of the baseline enumerator and test evaluation
+	public static int applyDSLOp(int srcNdIdx, int opInd, ASTTree tree) {
 		switch (opInd) {
 		case OP_UP:
-			return astStore.getNdParentIdx(srcNdIdx);
+			return tree.getNdParentIdx(srcNdIdx);
 		case OP_DOWN_FIRST:
-			Integer[] children1 = astStore.getNdChildrenIdx(srcNdIdx);
-			if (children1.length == 0) {
-				return -1;
-			} else {
-				return children1[0];
-			}
+			return tree.getNdDownFirstIdx(srcNdIdx);
 		case OP_DOWN_LAST:
-			Integer[] children2 = astStore.getNdChildrenIdx(srcNdIdx);
-			if (children2.length == 0) {
-				return -1;
-			} else {
-				return children2[children2.length-1];
-			}
+			return tree.getNdDownLastIdx(srcNdIdx);
 		case OP_PREV_NODE_VAL:
-			return astStore.getNdPrevValue(srcNdIdx);
+			return tree.getNdPrevValue(srcNdIdx);
 		/*case OP_PREV_NODE_TYPE:
-			return astStore.getNdPrevType(srcNdIdx);*/
+			return tree.getNdPrevType(srcNdIdx);*/
 		case OP_PREV_LEAF:
-			return astStore.getNdPrevLeafIdx(srcNdIdx);
+			return tree.getNdPrevLeafIdx(srcNdIdx);
 		case OP_NEXT_LEAF:
-			return astStore.getNdNextLeafIdx(srcNdIdx);
+			return tree.getNdNextLeafIdx(srcNdIdx);
 		case OP_LEFT:
-			return astStore.getNdLeftIdx(srcNdIdx);
+			return tree.getNdLeftIdx(srcNdIdx);
 		case OP_RIGHT:
-			return astStore.getNdRightIdx(srcNdIdx);
+			return tree.getNdRightIdx(srcNdIdx);
 		case OP_NOP:
 			return srcNdIdx;	
 		default:
@@ -355,10 +396,10 @@ public class DSLHelper {
 		}
 	}
 	
-	public static Integer applyDSLSequence(Integer srcNdIdx, ASTStore astStore, Integer... opSequence) {
-		Integer currNd = srcNdIdx;
+	public static int applyDSLSequence(int srcNdIdx, ASTTree tree, int... opSequence) {
+		int currNd = srcNdIdx;
 		for (int i = 0; i < opSequence.length; i++) {
-			currNd = applyDSLOp(currNd, opSequence[i], astStore);
+			currNd = applyDSLOp(currNd, opSequence[i], tree);
 			if (currNd == -1)
 				return -1;
 		}
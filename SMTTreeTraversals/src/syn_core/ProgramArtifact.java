@@ -0,0 +1,143 @@
+package syn_core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import utils.Pair;
+import ast_utils.ASTStore;
+
+/*
+ * Binary artifact of trained programs, so that training can run once and inference
+ * workers only load the programs. Layout (big endian, as written by DataOutputStream):
+ *  header:   MAGIC, FORMAT_VERSION, OP_CNT, program count
+ *  program:  tree idx, KIND_STRAIGHT ops | KIND_BRANCHED branch count, branches
+ *  branch:   criterion, COND_BOOL bool | COND_STRING utf, ops
+ *  ops:      op count, (instruction idx, op byte)*
+ * Artifacts written with a different DSL (OP_CNT) are rejected.
+ */
+public class ProgramArtifact {
+
+	private static final int MAGIC = 0x53594e50; // "SYNP"
+	private static final int FORMAT_VERSION = 1;
+	private static final byte KIND_STRAIGHT = 0;
+	private static final byte KIND_BRANCHED = 1;
+	private static final byte COND_BOOL = 0;
+	private static final byte COND_STRING = 1;
+
+	public static void save(String fileName, Collection<SynResult> results) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(DSLHelper.OP_CNT);
+			int cnt = 0;
+			for (SynResult result : results) {
+				if (result.isFound())
+					cnt++;
+			}
+			out.writeInt(cnt);
+			for (SynResult result : results) {
+				if (result.isFound())
+					writeResult(out, result);
+			}
+		}
+	}
+
+	// Programs of the artifact by tree, branch conditions are evaluated on the trees of astStore
+	public static TreeMap<Integer, SynResult> load(String fileName, ASTStore astStore) throws IOException {
+		TreeMap<Integer, SynResult> results = new TreeMap<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+				throw new IOException("Not a program artifact: " + fileName);
+			if (in.readInt() != DSLHelper.OP_CNT)
+				throw new IOException("Program artifact was trained with a different DSL: " + fileName);
+			int cnt = in.readInt();
+			for (int i = 0; i < cnt; i++) {
+				SynResult result = readResult(in);
+				if (result.isBranched())
+					result.bc = new BranchClassifier(astStore.getTreeView(result.treeIdx), new ArrayList<Pair<Integer, Integer>>());
+				results.put(result.treeIdx, result);
+			}
+		}
+		return results;
+	}
+
+	static void writeResult(DataOutputStream out, SynResult result) throws IOException {
+		out.writeInt(result.treeIdx);
+		if (result.modelInterpretation != null) {
+			out.writeByte(KIND_STRAIGHT);
+			writeProgram(out, result.modelInterpretation);
+			return;
+		}
+
+		out.writeByte(KIND_BRANCHED);
+		out.writeInt(result.branchedModelInterpretation.size());
+		for (Map.Entry<Pair<Integer, Object>, TreeMap<Integer, Integer>> en : result.branchedModelInterpretation.entrySet()) {
+			Pair<Integer, Object> branchCond = en.getKey();
+			out.writeInt(branchCond.first);
+			if (branchCond.second instanceof Boolean) {
+				out.writeByte(COND_BOOL);
+				out.writeBoolean((Boolean) branchCond.second);
+			} else {
+				out.writeByte(COND_STRING);
+				out.writeUTF(branchCond.second.toString());
+			}
+			writeProgram(out, en.getValue());
+		}
+	}
+
+	// The classifier of a branched result is left to the caller, it depends on the tree in use
+	static SynResult readResult(DataInputStream in) throws IOException {
+		SynResult result = new SynResult(in.readInt());
+		byte kind = in.readByte();
+		if (kind == KIND_STRAIGHT) {
+			result.modelInterpretation = readProgram(in);
+		} else if (kind == KIND_BRANCHED) {
+			int branchCnt = in.readInt();
+			for (int i = 0; i < branchCnt; i++) {
+				int criterion = in.readInt();
+				byte condKind = in.readByte();
+				Object condValue;
+				if (condKind == COND_BOOL)
+					condValue = in.readBoolean();
+				else if (condKind == COND_STRING)
+					condValue = in.readUTF();
+				else
+					throw new IOException("Unknown branch condition kind: " + condKind);
+				result.branchedModelInterpretation.put(new Pair<Integer, Object>(criterion, condValue), readProgram(in));
+			}
+		} else {
+			throw new IOException("Unknown program kind: " + kind);
+		}
+		return result;
+	}
+
+	private static void writeProgram(DataOutputStream out, TreeMap<Integer, Integer> program) throws IOException {
+		out.writeInt(program.size());
+		for (Map.Entry<Integer, Integer> en : program.entrySet()) {
+			out.writeInt(en.getKey());
+			out.writeByte(en.getValue());
+		}
+	}
+
+	private static TreeMap<Integer, Integer> readProgram(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		TreeMap<Integer, Integer> program = new TreeMap<>();
+		for (int i = 0; i < size; i++) {
+			int instrIdx = in.readInt();
+			int op = in.readByte();
+			if (op < 0 || op >= DSLHelper.OP_CNT)
+				throw new IOException("Unknown DSL op: " + op);
+			program.put(instrIdx, op);
+		}
+		return program;
+	}
+}
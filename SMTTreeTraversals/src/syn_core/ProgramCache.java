@@ -0,0 +1,146 @@
+package syn_core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+
+import main.SynMain;
+import utils.Pair;
+import ast_utils.ASTStore;
+import ast_utils.ASTTree;
+
+/*
+ * Content addressed on-disk cache of synthesized programs. A program is stored under the
+ * SHA-256 of everything training depends on: the tree (links, types and values of all nodes),
+ * the training pairs, OP_CNT, the opmin/opmax bounds, the engine and the enabled branch criteria. Only found programs are cached.
+ * Every entry holds a single program in the encoding of ProgramArtifact.
+ */
+public class ProgramCache {
+
+	private static final int FORMAT_VERSION = 2;
+
+	private final File dir;
+
+	public ProgramCache(String dirName) {
+		dir = new File(dirName);
+		dir.mkdirs();
+	}
+
+	// Cached program of the tree, null if there is none
+	public SynResult load(int treeIdx, ASTStore astStore, ArrayList<Pair<Integer, Integer>> srcDstPairs) {
+		File file = new File(dir, key(astStore.getTree(), srcDstPairs));
+		if (!file.isFile())
+			return null;
+
+		SynResult result = new SynResult(treeIdx);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			// entries are keyed by content, the stored tree idx may be another one
+			SynResult stored = ProgramArtifact.readResult(in);
+			result.modelInterpretation = stored.modelInterpretation;
+			result.branchedModelInterpretation = stored.branchedModelInterpretation;
+		} catch (IOException | RuntimeException e) {
+			// a broken entry is a cache miss
+			return null;
+		}
+		if (!result.isFound())
+			return null;
+		if (result.isBranched())
+			result.bc = new BranchClassifier(astStore, srcDstPairs);
+		return result;
+	}
+
+	public void store(SynResult result, ASTStore astStore, ArrayList<Pair<Integer, Integer>> srcDstPairs) {
+		if (!result.isFound())
+			return;
+
+		String key = key(astStore.getTree(), srcDstPairs);
+		// written aside and renamed, so concurrent runs never see a partial entry
+		File tmp = new File(dir, key + "." + Thread.currentThread().getId() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			ProgramArtifact.writeResult(out, result);
+		} catch (IOException e) {
+			// the program was trained anyway, it just isn't cached
+			System.err.println("Couldn't write program cache entry " + tmp.getPath() + ": " + e.getMessage());
+			tmp.delete();
+			return;
+		}
+		if (!tmp.renameTo(new File(dir, key)))
+			tmp.delete();
+	}
+
+	private static String key(ASTTree tree, ArrayList<Pair<Integer, Integer>> srcDstPairs) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		updateInt(digest, FORMAT_VERSION);
+		updateInt(digest, DSLHelper.OP_CNT);
+		updateInt(digest, SynMain.startOpNum);
+		updateInt(digest, SynMain.maxOpNum);
+		updateInt(digest, SynEngine.getEngine());
+		ArrayList<BranchCriterion> criteria = BranchCriteria.getEnabled();
+		updateInt(digest, criteria.size());
+		for (BranchCriterion criterion : criteria) {
+			updateInt(digest, criterion.getId());
+		}
+
+		int size = tree.getSize();
+		updateInt(digest, size);
+		for (int nd = 0; nd < size; nd++) {
+			if (!tree.contains(nd)) {
+				updateInt(digest, -2);
+				continue;
+			}
+			updateInt(digest, tree.getNdParentIdx(nd));
+			updateInt(digest, tree.getNdLeftIdx(nd));
+			updateInt(digest, tree.getNdRightIdx(nd));
+			updateInt(digest, tree.getNdPrevLeafIdx(nd));
+			updateInt(digest, tree.getNdNextLeafIdx(nd));
+			updateInt(digest, tree.getNdPrevValue(nd));
+			int childCnt = tree.getNdChildCnt(nd);
+			updateInt(digest, childCnt);
+			for (int i = 0; i < childCnt; i++) {
+				updateInt(digest, tree.getNdChildIdx(nd, i));
+			}
+			updateString(digest, tree.getNdType(nd));
+			updateString(digest, tree.getNdValue(nd));
+		}
+
+		updateInt(digest, srcDstPairs.size());
+		for (Pair<Integer, Integer> pair : srcDstPairs) {
+			updateInt(digest, pair.first);
+			updateInt(digest, pair.second);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	private static void updateInt(MessageDigest digest, int val) {
+		digest.update((byte) (val >>> 24));
+		digest.update((byte) (val >>> 16));
+		digest.update((byte) (val >>> 8));
+		digest.update((byte) val);
+	}
+
+	// length prefixed, so that consecutive strings can't run into each other
+	private static void updateString(MessageDigest digest, String val) {
+		byte[] bytes = val.getBytes(StandardCharsets.UTF_8);
+		updateInt(digest, bytes.length);
+		digest.update(bytes);
+	}
+}
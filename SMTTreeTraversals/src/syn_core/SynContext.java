@@ -1,5 +1,6 @@
 package syn_core;
 
+import main.SynMain;
 import ast_utils.ASTStore;
 
 import com.microsoft.z3.*;
@@ -19,15 +20,43 @@ public class SynContext extends Context {
 	private ASTStore astStore;
 	private int opNum;
 	private boolean efficientLookup;
+	private boolean bitvectorEncoding;
+	private boolean oneHotOps;
 	
 	private Expr[] opIndVars;
+	private ArrayExpr[] dslArrays = new ArrayExpr[DSLHelper.OP_CNT];
+	private FuncDecl[] dslFuncs = new FuncDecl[DSLHelper.OP_CNT];
+	private BoolExpr[][] opSwitches;
+	
+	// DSL tables are only defined for nodes reachable from these sources
+	private TreeSet<Integer> tableSrcs = new TreeSet<>();
+	private ArrayList<Integer> tableNds = null;
+	
+	// Encoded DSL tables and the incremental solver they are asserted in, cached for the
+	// lifetime of the context (all op. counts and all branches of a tree) until the ASTStore
+	// version or the table sources change
+	private BoolExpr dslDefinitions = null;
+	private int dslDefinitionsVersion = -1;
+	private Solver incrementalSolver = null;
+	private int activationCnt = 0;
+	
+	// Widths of node indices and op switches in the bitvector encoding, node indices are
+	// unsigned with -1 (no node) encoded as all ones, so the width has to leave it unused
+	private int ndBits = 0;
+	private int opBits = 0;
 	
 	public SynContext(HashMap<String, String> cfg, ASTStore astStore, boolean efficientLookup) {
+		this(cfg, astStore, efficientLookup, false, false);
+	}
+	
+	public SynContext(HashMap<String, String> cfg, ASTStore astStore, boolean efficientLookup, boolean bitvectorEncoding, boolean oneHotOps) {
 		super(cfg);
 		this.astStore = astStore;
 		opNum = 1;
 		srcDstPairs = new ArrayList<Pair<Integer, Integer>>();
 		this.efficientLookup = efficientLookup;
+		this.bitvectorEncoding = bitvectorEncoding;
+		this.oneHotOps = oneHotOps;
 	}
 		
 	public void setOpNum(int opNum) {
@@ -36,67 +65,137 @@ public class SynContext extends Context {
 	
 	public void addSrcDstPair(Pair<Integer, Integer> srcDstPair) {
 		srcDstPairs.add(srcDstPair);
+		addTableSrc(srcDstPair.first);
+	}
+	
+	// Sources of pairs which are not in the formula yet, but may be added later (CEGIS),
+	// have to be known before the DSL tables are defined
+	public void addTableSrc(int srcNdIdx) {
+		if (tableSrcs.add(srcNdIdx))
+			invalidateDSLDefinitions();
+	}
+	
+	// Drops the pairs of the formula, the DSL tables stay, so the context can be reused for another branch
+	public void clearSrcDstPairs() {
+		srcDstPairs.clear();
+	}
+	
+	private void invalidateDSLDefinitions() {
+		tableNds = null;
+		dslDefinitions = null;
+		incrementalSolver = null;
+	}
+	
+	// Nodes the DSL tables are defined for: every node reachable from the sources within maxOpNum steps.
+	// A program only ever applies DSL ops to these, so the rest of the tree is left out of the formula
+	public ArrayList<Integer> getTableNds() {
+		if (dslDefinitionsVersion != astStore.getVersion())
+			invalidateDSLDefinitions();
+		if (tableNds == null)
+			tableNds = DSLHelper.reachableNds(astStore.getTree(), tableSrcs, SynMain.maxOpNum);
+		return tableNds;
 	}
 	
 	/* Following method tries to generate the following formula. 
 	 * If instrNo is 1 and DSL opCnt is 3 the following is generated.
 	 *  src = 3, dst = 1
 		0: (declare-const dst Int)
-		1: (assert 
-		2: (exists ((op Int)) 
+		1: (declare-const op Int)
+		2: (assert 
 		3:	(and 
 		4:		(ite (= op 1) 
 		5:			(= dst (up 3))
 		6:			(ite (= op 2)
 		7:				(= dst (down-first 3))
 		8:				(= dst (down-last 3))))
-		9:		(= dst 1))))
+		9:		(= dst 1)))
+	 * The formula is ground (op switches are free constants read back from the model),
+	 * so it can be checked by a quantifier-free solver, see mkSynthesisSolver.
 	 */
 	public BoolExpr mkSynthesisFormula() throws Exception {
-		// TODO mkExists
-		
+		// If DSL ops are encoded as lookups into DSL defined arrays, then also add the definition of stores of these arrays;
+		// they have to be created before the traversal formula which selects from them
+		if (hasDSLDefinitions()) {
+			BoolExpr dslArrayDefinitions = mkDSLDefinitions();
+			return mkAnd(dslArrayDefinitions, mkTraversalFormula());
+		}
+		return mkTraversalFormula();
+	}
+	
+	// Definitions of the DSL arrays, these don't depend on the op. count
+	// so an incremental solver needs them asserted only once
+	public BoolExpr mkDSLDefinitions() {
+		if (dslDefinitionsVersion != astStore.getVersion())
+			invalidateDSLDefinitions();
+		if (dslDefinitions == null) {
+			if (oneHotOps)
+				dslDefinitions = DSLHelper.initDSLFunctions(astStore, this, dslFuncs);
+			else
+				dslDefinitions = DSLHelper.initDSLArrays(astStore, this, dslArrays);
+			dslDefinitionsVersion = astStore.getVersion();
+		}
+		return dslDefinitions;
+	}
+	
+	// Solver for incremental checks with the DSL tables already asserted, op. count dependent
+	// parts are to be added guarded by an activation literal (see mkActivation)
+	public Solver getIncrementalSolver() {
+		if (incrementalSolver == null || dslDefinitionsVersion != astStore.getVersion()) {
+			Solver solve = mkSynthesisSolver();
+			if (hasDSLDefinitions())
+				solve.add(mkDSLDefinitions());
+			incrementalSolver = solve;
+		}
+		return incrementalSolver;
+	}
+	
+	// Fresh literal guarding the formula of a single incremental check
+	public BoolExpr mkActivation() {
+		return mkBoolConst("act" + (activationCnt++));
+	}
+	
+	// DSL ops are either shared (arrays or uninterpreted functions defined once), or inlined as ITE tables
+	public boolean hasDSLDefinitions() {
+		return efficientLookup || oneHotOps;
+	}
+	
+	// Part of the synthesis formula depending on the current op. count,
+	// DSL arrays have to be defined beforehand if efficientLookup is used
+	public BoolExpr mkTraversalFormula() throws Exception {
 		if (opNum == 0) 
 			throw new Exception("Cannot synthesise a program with 0 instructions...");
 		
 		if (DSLHelper.OP_CNT == 0) 
 			throw new Exception("Cannot synthesise a program with empty DSL...");
 		
-		// DSL op indices as bound variables for existential quantifier
-		// Line 2 in above example
-		//Expr[] opInd = new Expr[instrNo];	
-		Sort[] opIndSorts = new Sort[opNum];
-		Symbol[] opIndNames = new Symbol[opNum];
+		if (oneHotOps)
+			return mkOneHotTraversalFormula();
+		
+		// DSL op indices as free constants
+		// Line 1 in above example
 		opIndVars = new Expr[opNum];
-		ArrayList<IntExpr[]> dstVars = new ArrayList<IntExpr[]>();
+		ArrayList<Expr[]> dstVars = new ArrayList<Expr[]>();
 		
 		// Initialize Op variables as switches for DSL operations
 		for (int i = 0; i < opNum; i++) {
-			opIndSorts[i] = mkIntSort();
-			opIndNames[i] = mkSymbol("op"+i);
-			opIndVars[i] = mkConst(opIndNames[i], opIndSorts[i]);
+			opIndVars[i] = mkConst("op"+i, mkOpSort());
 		}
 		
 		// Initialize destination variables (chained in sequence for each program, one chain for each in/out pair)
 		for (int i = 0; i < srcDstPairs.size(); i++) {
-			IntExpr[] dstVar = new IntExpr[opNum];
+			Expr[] dstVar = new Expr[opNum];
 			for (int j = 0; j < opNum; j++) {
-				dstVar[j] = mkIntConst("dst"+"_"+i+"_"+j);			
+				dstVar[j] = mkConst("dst"+"_"+i+"_"+j, mkNdSort());			
 			}	
 			dstVars.add(dstVar);
 		}
 
-		// If DSL ops are encoded as lookups into DSL defined arrays, then also add the definition of stores of these arrays;
-		BoolExpr dslArrayDefinitions = null;
-		if (efficientLookup) {
-			dslArrayDefinitions = DSLHelper.initDSLArrays(astStore, this);
-		}
-	
-		Expr existsBody = null;
+		Expr synBody = null;
 		for (int i = 0; i < srcDstPairs.size(); i++) {
 			
 			// Add first nested ITE and the final equality
-			Expr nestITE = mkNestedITE(opIndVars[0], dstVars.get(i)[0], mkInt(srcDstPairs.get(i).first), 0);
-			BoolExpr reachedDst = mkEq(dstVars.get(i)[opNum-1], mkInt(srcDstPairs.get(i).second));
+			Expr nestITE = mkNestedITE(opIndVars[0], dstVars.get(i)[0], mkNd(srcDstPairs.get(i).first), 0);
+			BoolExpr reachedDst = mkEq(dstVars.get(i)[opNum-1], mkNd(srcDstPairs.get(i).second));
 			//BoolExpr boolNestITE = mk
 			BoolExpr currPairBody = mkAnd((BoolExpr) nestITE, reachedDst);
 			
@@ -107,39 +206,60 @@ public class SynContext extends Context {
 				currPairBody = mkAnd((BoolExpr) nestITE, (BoolExpr) currPairBody);
 			}
 			
-			// In first iteration, just assign currPairBody to existsBody
-			if (existsBody == null) {
-				existsBody = currPairBody;
+			// In first iteration, just assign currPairBody to synBody
+			if (synBody == null) {
+				synBody = currPairBody;
 			} else {
-				existsBody = mkAnd((BoolExpr) existsBody, currPairBody);
+				synBody = mkAnd((BoolExpr) synBody, currPairBody);
 			}
 		}
 
 		// Introduce a constraint for DSL operation switches: op[i] >= 0 && op[i] <= MAX_NUM_OF_INSTRUCTIONS-1
-		BoolExpr existDSLOpSwitches = mkExists(opIndSorts, opIndNames, existsBody, 1, null, null, null, null);
-		BoolExpr constraintsDSLOpSwitches = mkAnd(
-												mkGe((ArithExpr) opIndVars[0], mkInt(0)), 
-												mkLe((ArithExpr) opIndVars[0], mkInt(DSLHelper.OP_CNT-1)));
+		BoolExpr constraintsDSLOpSwitches = mkOpRange(opIndVars[0]);
 		for (int i = 1; i < opNum; i++) {
-			constraintsDSLOpSwitches = mkAnd(constraintsDSLOpSwitches, 
-											mkAnd(
-												mkGe((ArithExpr) opIndVars[i], mkInt(0)), 
-												mkLe((ArithExpr) opIndVars[i], mkInt(DSLHelper.OP_CNT-1))));
+			constraintsDSLOpSwitches = mkAnd(constraintsDSLOpSwitches, mkOpRange(opIndVars[i]));
 		}
 
 		
-		BoolExpr synFormula = mkAnd(constraintsDSLOpSwitches, existDSLOpSwitches);
+		return mkAnd(constraintsDSLOpSwitches, (BoolExpr) synBody);
+	}
+
+	/* One-hot variant of the traversal formula, every step j has a Boolean switch op_j_k for every
+	 * DSL op k, exactly one of them is true. DSL ops are the shared functions from mkDSLDefinitions,
+	 * so the formula grows as pairs x steps x OP_CNT small implications instead of nested tables:
+	 *	(=> op_j_1 (= dst_i_j (funDownFirst dst_i_j-1)))
+	 */
+	private BoolExpr mkOneHotTraversalFormula() {
+		opSwitches = new BoolExpr[opNum][DSLHelper.OP_CNT];
+		ArrayList<BoolExpr> constraints = new ArrayList<>();
+		for (int j = 0; j < opNum; j++) {
+			for (int k = 0; k < DSLHelper.OP_CNT; k++) {
+				opSwitches[j][k] = mkBoolConst("op" + j + "_" + k);
+			}
+			constraints.add(mkOr(opSwitches[j]));
+			for (int k = 0; k < DSLHelper.OP_CNT; k++) {
+				for (int l = k + 1; l < DSLHelper.OP_CNT; l++) {
+					constraints.add(mkOr(mkNot(opSwitches[j][k]), mkNot(opSwitches[j][l])));
+				}
+			}
+		}
 		
+		for (int i = 0; i < srcDstPairs.size(); i++) {
+			Expr prev = mkNd(srcDstPairs.get(i).first);
+			for (int j = 0; j < opNum; j++) {
+				Expr dst = mkConst("dst" + "_" + i + "_" + j, mkNdSort());
+				for (int k = 0; k < DSLHelper.OP_CNT; k++) {
+					Expr next = k == DSLHelper.OP_NOP ? prev : mkApp(dslFuncs[k], prev);
+					constraints.add(mkImplies(opSwitches[j][k], mkEq(dst, next)));
+				}
+				prev = dst;
+			}
+			constraints.add(mkEq(prev, mkNd(srcDstPairs.get(i).second)));
+		}
 		
-		//ArrayList<Object> res = new ArrayList<>();
-		//res.add(synFormula);
-		//res.add(dslArrayDefinitions);
-		if (efficientLookup)
-			synFormula = mkAnd(dslArrayDefinitions, synFormula);
-			//synFormula = dslArrayDefinitions;
-		return synFormula;
+		return mkAnd(constraints.toArray(new BoolExpr[constraints.size()]));
 	}
-
+	
 	/* Recursive function of generating a nested ITE constraint in the following example form:
 	 * 
 		4:		(ite (= op 1) 
@@ -148,12 +268,12 @@ public class SynContext extends Context {
 		7:				(= dst (down-first 3))
 		8:				(= dst (down-last 3))))
 	 */
-	private Expr mkNestedITE(Expr opIdxVar, IntExpr dstVar, IntExpr srcVar, int currOpInd) {
-		BoolExpr cond = mkEq(opIdxVar, mkInt(currOpInd));
-		Expr tBranch = DSLHelper.getDSLOp(currOpInd, srcVar, dstVar, astStore, this, efficientLookup);
+	private Expr mkNestedITE(Expr opIdxVar, Expr dstVar, Expr srcVar, int currOpInd) {
+		BoolExpr cond = mkEq(opIdxVar, mkOp(currOpInd));
+		Expr tBranch = DSLHelper.getDSLOp(currOpInd, srcVar, dstVar, astStore, this, dslArrays, efficientLookup);
 		if (currOpInd == DSLHelper.OP_CNT - 1) {
-			//Expr fBranch = DSLHelper.getDSLOp(currOpInd, srcVar, dstVar, astStore, this, efficientLookup);
-			Expr fBranch = mkEq(dstVar, mkInt(-1));
+			//Expr fBranch = DSLHelper.getDSLOp(currOpInd, srcVar, dstVar, astStore, this, dslArrays, efficientLookup);
+			Expr fBranch = mkEq(dstVar, mkNd(-1));
 			return mkITE(cond, tBranch, fBranch);
 		} else {
 			Expr fBranch = mkNestedITE(opIdxVar, dstVar, srcVar, currOpInd+1);
@@ -163,11 +283,75 @@ public class SynContext extends Context {
 	
 	public TreeMap<Integer,Integer> mkModelInterpretation(Model model) {
 		TreeMap<Integer, Integer> res = new TreeMap<>();
+		if (oneHotOps) {
+			for (int i = 0; i < opNum; i++) {
+				for (int k = 0; k < DSLHelper.OP_CNT; k++) {
+					if (model.eval(opSwitches[i][k], true).isTrue()) {
+						res.put(i, k);
+						break;
+					}
+				}
+			}
+			return res;
+		}
 		for (int i = 0; i < opNum; i++) {
 			Expr interp = model.getConstInterp(opIndVars[i]);
-			res.put(i, ((IntNum) interp).getInt());
+			res.put(i, bitvectorEncoding ? ((BitVecNum) interp).getInt() : ((IntNum) interp).getInt());
 		}
 		
 		return res;
+	}
+	
+	// Solver for the quantifier-free logic of the current encoding: arrays are only used
+	// with efficientLookup, arithmetic is replaced by bitvectors with bitvectorEncoding
+	public Solver mkSynthesisSolver() {
+		if (oneHotOps)
+			return mkSolver(bitvectorEncoding ? "QF_UFBV" : "QF_UFLIA");
+		if (bitvectorEncoding)
+			return mkSolver(efficientLookup ? "QF_AUFBV" : "QF_BV");
+		return mkSolver(efficientLookup ? "QF_AUFLIA" : "QF_LIA");
+	}
+	
+	// Sort of node indices, Int or a bitvector wide enough for every node of the tree and the src/dst pairs
+	public Sort mkNdSort() {
+		if (!bitvectorEncoding)
+			return mkIntSort();
+		if (ndBits == 0) {
+			int maxNd = astStore.getTree().getSize();
+			for (Pair<Integer, Integer> pair : srcDstPairs) {
+				maxNd = Math.max(maxNd, Math.max(pair.first, pair.second) + 1);
+			}
+			ndBits = Math.max(32 - Integer.numberOfLeadingZeros(maxNd), 1);
+		}
+		return mkBitVecSort(ndBits);
+	}
+	
+	public Expr mkNd(int ndIdx) {
+		if (!bitvectorEncoding)
+			return mkInt(ndIdx);
+		int bits = ((BitVecSort) mkNdSort()).getSize();
+		return mkBV(ndIdx == -1 ? (1L << bits) - 1 : ndIdx, bits);
+	}
+	
+	// Sort of DSL op switches, Int or a bitvector wide enough for OP_CNT-1
+	public Sort mkOpSort() {
+		if (!bitvectorEncoding)
+			return mkIntSort();
+		if (opBits == 0)
+			opBits = Math.max(32 - Integer.numberOfLeadingZeros(DSLHelper.OP_CNT - 1), 1);
+		return mkBitVecSort(opBits);
+	}
+	
+	public Expr mkOp(int opInd) {
+		if (!bitvectorEncoding)
+			return mkInt(opInd);
+		return mkBV(opInd, ((BitVecSort) mkOpSort()).getSize());
+	}
+	
+	// op >= 0 && op <= OP_CNT-1, bitvector switches are unsigned so only the upper bound is needed
+	private BoolExpr mkOpRange(Expr opIndVar) {
+		if (bitvectorEncoding)
+			return mkBVULE((BitVecExpr) opIndVar, (BitVecExpr) mkOp(DSLHelper.OP_CNT-1));
+		return mkAnd(mkGe((ArithExpr) opIndVar, mkInt(0)), mkLe((ArithExpr) opIndVar, mkInt(DSLHelper.OP_CNT-1)));
 	}	
 } 
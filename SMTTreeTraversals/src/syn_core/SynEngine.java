@@ -7,37 +7,124 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import main.SynMain;
 
 import utils.Pair;
 
 import ast_utils.ASTStore;
+import ast_utils.ASTTree;
+import ast_utils.ReachabilityIndex;
 
 import com.microsoft.z3.*;
 
 public class SynEngine {
 
 	
-	public static TreeMap<Integer, Integer> modelInterpretation = null;
-	public static HashMap<Pair<Integer, Object>, TreeMap<Integer, Integer>> branchedModelInterpretation = null;
-	private static boolean baseline = false;
+	public static final int ENGINE_SMT = 0;
+	public static final int ENGINE_BASELINE = 1;
+	public static final int ENGINE_BIDIRECTIONAL = 2;
+	public static final int ENGINE_PORTFOLIO = 3;
+	
+	private static int engine = ENGINE_SMT;
 	
 
-	public static boolean trainProgram(int treeIdx, ASTStore astStore, boolean efficientLookup, boolean branchedTraining, Pair<Integer, Object> branchCondValue, ArrayList<Pair<Integer, Integer>> srcDstPairs) {
-		if (baseline) {
-			return SynEngineBaseline.trainProgramBaseline(treeIdx, astStore, branchedTraining, branchCondValue, srcDstPairs);
-		} else {
-			return SynEngineSmt.trainProgramSmt(treeIdx, astStore, efficientLookup, branchedTraining, branchCondValue, srcDstPairs);
-			
+	public static boolean trainProgram(int treeIdx, ASTStore astStore, boolean efficientLookup, boolean branchedTraining, Pair<Integer, Object> branchCondValue, ArrayList<Pair<Integer, Integer>> srcDstPairs, SynResult result) {
+		return trainProgram(treeIdx, astStore, efficientLookup, branchedTraining, branchCondValue, srcDstPairs, result, null);
+	}
+	
+	// With smtCtx the SMT engine trains on the given context (shared by the branches of a tree,
+	// or interrupted by another thread) instead of its own one
+	public static boolean trainProgram(int treeIdx, ASTStore astStore, boolean efficientLookup, boolean branchedTraining, Pair<Integer, Object> branchCondValue, ArrayList<Pair<Integer, Integer>> srcDstPairs, SynResult result, SynContext smtCtx) {
+		if (getMinOpNum(astStore, srcDstPairs) == -1) {
+			if (!SynMain.statsOnly && !SynMain.resultsOnly)
+				System.out.println("Training" + (branchedTraining ? " single branch: " : " program: ") + " a dst node isn't reachable from its src node within " + SynMain.maxOpNum + " ops, no program exists\n");
+			return false;
+		}
+		switch (engine) {
+		case ENGINE_BASELINE:
+			return SynEngineBaseline.trainProgramBaseline(treeIdx, astStore, branchedTraining, branchCondValue, srcDstPairs, result);
+		case ENGINE_BIDIRECTIONAL:
+			return SynEngineBidirectional.trainProgramBidirectional(treeIdx, astStore, branchedTraining, branchCondValue, srcDstPairs, result);
+		case ENGINE_PORTFOLIO:
+			return SynEnginePortfolio.trainProgramPortfolio(treeIdx, astStore, efficientLookup, branchedTraining, branchCondValue, srcDstPairs, result);
+		default:
+			return SynEngineSmt.trainProgramSmt(treeIdx, astStore, efficientLookup, branchedTraining, branchCondValue, srcDstPairs, result, smtCtx);
+		}
+	}
+	
+	// Sound lower bound on the op. count of a program satisfying all pairs: the largest number of
+	// DSL ops between a src and its dst. -1 if some dst can't be reached within maxOpNum ops
+	public static int getMinOpNum(ASTStore astStore, ArrayList<Pair<Integer, Integer>> srcDstPairs) {
+		ASTTree tree = astStore.getTree();
+		if (tree == null)
+			return 0;
+		ReachabilityIndex index = DSLHelper.getReachabilityIndex(tree);
+		int minOpNum = 0;
+		for (Pair<Integer, Integer> pair : srcDstPairs) {
+			if (pair.second == -1 || !tree.contains(pair.first))
+				continue;
+			int dist = index.getDistance(pair.first, pair.second);
+			if (dist == -1)
+				return -1;
+			minOpNum = Math.max(minOpNum, dist);
 		}
+		return minOpNum;
 	}
 	
-	public static boolean trainBranchedProgram(int treeIdx, BranchClassifier bc, ASTStore astStore, boolean efficientLookup, ArrayList<Pair<Integer, Integer>> srcDstPairs) {
+	// First op. count worth checking, smaller ones are UNSAT
+	public static int getStartOpNum(ASTStore astStore, ArrayList<Pair<Integer, Integer>> srcDstPairs) {
+		return Math.max(SynMain.startOpNum, getMinOpNum(astStore, srcDstPairs));
+	}
+	
+	// Pairs no program of at most maxOpNum ops satisfies, their dst is too far from their src
+	public static ArrayList<Pair<Integer, Integer>> getUnreachablePairs(ASTStore astStore, ArrayList<Pair<Integer, Integer>> srcDstPairs) {
+		ArrayList<Pair<Integer, Integer>> unreachable = new ArrayList<>();
+		ASTTree tree = astStore.getTree();
+		if (tree == null)
+			return unreachable;
+		ReachabilityIndex index = DSLHelper.getReachabilityIndex(tree);
+		for (Pair<Integer, Integer> pair : srcDstPairs) {
+			if (pair.second != -1 && tree.contains(pair.first) && !index.isReachable(pair.first, pair.second))
+				unreachable.add(pair);
+		}
+		return unreachable;
+	}
+	
+	public static boolean trainBranchedProgram(int treeIdx, BranchClassifier bc, ASTStore astStore, boolean efficientLookup, ArrayList<Pair<Integer, Integer>> srcDstPairs, SynResult result) {
 		bc.classifyTestPairs();
-		branchedModelInterpretation = new HashMap<>();
+		result.bc = bc;
+		result.branchedModelInterpretation = new HashMap<>();
 		
-		boolean synAll = true;
+		if (SynMain.branchThreadCnt > 1)
+			return trainBranchesParallel(treeIdx, bc, astStore, efficientLookup, result);
+		
+		// Branches are trained on the same tree, so SMT trainings share one context and
+		// the DSL tables (covering sources of all pairs of the tree) are encoded only once
+		SynContext sharedCtx = null;
+		if (engine == ENGINE_SMT) {
+			sharedCtx = SynEngineSmt.mkContext(astStore, efficientLookup);
+			for (Pair<Integer, Integer> pair : srcDstPairs) {
+				sharedCtx.addTableSrc(pair.first);
+			}
+		}
+		try {
+			return trainBranches(treeIdx, bc, astStore, efficientLookup, result, sharedCtx);
+		} finally {
+			if (sharedCtx != null)
+				sharedCtx.dispose();
+		}
+	}
+	
+	// The first criterion (in order) with all branches trained wins
+	private static boolean trainBranches(int treeIdx, BranchClassifier bc, ASTStore astStore, boolean efficientLookup, SynResult result, SynContext sharedCtx) {
+		boolean synAll = false;
 		for(int i = 0; i < bc.criteriaCnt; i++) {
 			if (!SynMain.statsOnly && !SynMain.resultsOnly) {
 				System.out.println("Training branched: Getting classification according to criteria -> " + bc.getCriterionName(i));
@@ -58,27 +145,173 @@ public class SynEngine {
 				System.out.println("Training branched: " + bc.getCriterionName(i) + " classification successful!");
 				System.out.println();
 			}
-			ArrayList<ArrayList<Pair<Integer, Integer>>> currSrcDstPairs = bc.getClassification(i);
-			for (ArrayList<Pair<Integer, Integer>> branchPairs : currSrcDstPairs) {
-				boolean canTrainProgram = false;
-				if (baseline)
-					canTrainProgram = SynEngineBaseline.trainProgramBaseline(treeIdx, astStore, true, new Pair(bc.getCriterion(i), bc.getBranchCondValue(i, branchPairs)), branchPairs);
-				else
-					canTrainProgram = SynEngineSmt.trainProgramSmt(treeIdx, astStore, efficientLookup, true, new Pair(bc.getCriterion(i), bc.getBranchCondValue(i, branchPairs)), branchPairs);
-				synAll = synAll && canTrainProgram;
+			synAll = true;
+			for (BranchClassifier.Branch branch : bc.getClassification(i)) {
+				synAll = trainProgram(treeIdx, astStore, efficientLookup, true, branch.cond, branch.pairs, result, sharedCtx);
 				if (!synAll) 
 					break;
 			}
-			if (!synAll)
-				continue;
+			if (synAll)
+				break;
 
-			break;
+			// a branch failed, the bodies of the criterion's other branches are dropped
+			result.branchedModelInterpretation.clear();
 		}
 		return synAll;
 	}
 	
+	/*
+	 * Branches are independent problems over disjoint pairs, so the branches of all criteria are
+	 * trained at the same time, every branch on its own context (no shared SMT context) and into
+	 * its own SynResult. The rule is the one of trainBranches: the first criterion (in order)
+	 * with all branches trained wins, its bodies are merged into result on the calling thread, and
+	 * training of the other criteria is cancelled (SMT contexts are interrupted).
+	 */
+	private static boolean trainBranchesParallel(int treeIdx, BranchClassifier bc, ASTStore astStore, boolean efficientLookup, SynResult result) {
+		// daemon threads, cancelled branches still finishing up don't keep the JVM alive
+		final ThreadFactory threads = Executors.defaultThreadFactory();
+		ExecutorService executor = Executors.newFixedThreadPool(SynMain.branchThreadCnt, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = threads.newThread(r);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		ArrayList<ArrayList<BranchTask>> criteriaBranches = new ArrayList<>();
+		for (int i = 0; i < bc.criteriaCnt; i++) {
+			if (!SynMain.statsOnly && !SynMain.resultsOnly) {
+				System.out.println("Training branched: Getting classification according to criteria -> " + bc.getCriterionName(i));
+			}
+			if (bc.isFakeCriterion(i)) {
+				if (!SynMain.statsOnly && !SynMain.resultsOnly)
+					System.out.println("Training branched: " + bc.getCriterionName(i) + " is false criterion... (all pairs are within one branch)");
+				criteriaBranches.add(null);
+				continue;
+			}
+			
+			ArrayList<BranchTask> branches = new ArrayList<>();
+			for (BranchClassifier.Branch branch : bc.getClassification(i)) {
+				BranchTask task = new BranchTask(treeIdx, astStore, efficientLookup, branch);
+				task.future = executor.submit(task);
+				branches.add(task);
+			}
+			criteriaBranches.add(branches);
+		}
+		executor.shutdown();
+		
+		boolean synAll = false;
+		boolean interrupted = false;
+		for (ArrayList<BranchTask> branches : criteriaBranches) {
+			if (branches == null || synAll || interrupted) {
+				cancel(branches);
+				continue;
+			}
+			
+			ArrayList<SynResult> branchResults = new ArrayList<>();
+			for (BranchTask branch : branches) {
+				SynResult branchResult = null;
+				try {
+					branchResult = branch.future.get();
+				} catch (InterruptedException e) {
+					// training of the tree is given up, the flag is kept for the caller
+					Thread.currentThread().interrupt();
+					interrupted = true;
+				} catch (ExecutionException e) {
+					System.err.println("Training of branch " + BranchClassifier.parseBranchCondition(branch.branch.cond) + " failed: " + e.getCause());
+				}
+				if (branchResult == null)
+					break;
+				branchResults.add(branchResult);
+			}
+			
+			if (branchResults.size() == branches.size()) {
+				for (SynResult branchResult : branchResults) {
+					result.branchedModelInterpretation.putAll(branchResult.branchedModelInterpretation);
+				}
+				synAll = true;
+			} else {
+				// a branch failed, the rest of the criterion is of no use
+				cancel(branches);
+			}
+		}
+		executor.shutdownNow();
+		return synAll;
+	}
+	
+	private static void cancel(ArrayList<BranchTask> branches) {
+		if (branches == null)
+			return;
+		for (BranchTask branch : branches) {
+			branch.cancel();
+		}
+	}
+	
+	// Training of a single branch, cancelling interrupts both its thread and its SMT context
+	private static class BranchTask implements Callable<SynResult> {
+		private final int treeIdx;
+		private final ASTStore astStore;
+		private final boolean efficientLookup;
+		final BranchClassifier.Branch branch;
+		Future<SynResult> future;
+		private SynContext ctx = null;
+		private boolean cancelled = false;
+
+		BranchTask(int treeIdx, ASTStore astStore, boolean efficientLookup, BranchClassifier.Branch branch) {
+			this.treeIdx = treeIdx;
+			this.astStore = astStore;
+			this.efficientLookup = efficientLookup;
+			this.branch = branch;
+		}
+
+		// The context may only be interrupted while it is alive, so interrupting and disposing are serialized
+		synchronized void cancel() {
+			cancelled = true;
+			future.cancel(true);
+			if (ctx != null)
+				ctx.interrupt();
+		}
+
+		private synchronized boolean start(SynContext ctx) {
+			this.ctx = ctx;
+			return !cancelled;
+		}
+
+		private synchronized void dispose() {
+			ctx.dispose();
+			ctx = null;
+		}
+
+		@Override
+		public SynResult call() {
+			SynResult branchResult = new SynResult(treeIdx);
+			if (engine != ENGINE_SMT)
+				return trainProgram(treeIdx, astStore, efficientLookup, true, branch.cond, branch.pairs, branchResult) ? branchResult : null;
+
+			SynContext ctx = SynEngineSmt.mkContext(astStore, efficientLookup);
+			try {
+				if (!start(ctx))
+					return null;
+				return trainProgram(treeIdx, astStore, efficientLookup, true, branch.cond, branch.pairs, branchResult, ctx) ? branchResult : null;
+			} finally {
+				if (this.ctx != null)
+					dispose();
+				else
+					ctx.dispose();
+			}
+		}
+	}
+	
 	public static void setBaselineMode(boolean isOn) {
-		baseline = isOn;
+		engine = isOn ? ENGINE_BASELINE : ENGINE_SMT;
+	}
+	
+	public static void setEngine(int engine) {
+		SynEngine.engine = engine;
+	}
+	
+	public static int getEngine() {
+		return engine;
 	}
 	
 	public static TreeMap<Integer, Integer> eliminateDeadCode(TreeMap<Integer, Integer> program) {
@@ -1,83 +1,285 @@
 package syn_core;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.TreeMap;
 
 import main.SynMain;
+import utils.IntTupleSet;
 import utils.Pair;
 import ast_utils.ASTStore;
+import ast_utils.ASTTree;
+import ast_utils.ReachabilityIndex;
 
+/*
+ * Bottom-up enumeration of DSL programs by increasing length, up to observational equivalence:
+ * programs are identified by the vector of nodes they reach from the src nodes of all pairs,
+ * only the first (shortest) program reaching a node vector is kept and extended. Nops and
+ * (mostly) ops undoing the previous op never reach a new vector, so they drop out on their own.
+ * The first op is restricted to the ops starting a path of at most maxOpNum ops from src to dst
+ * for every pair (ReachabilityIndex). The enumeration needs memory for every distinct vector, once MAX_CLASS_INTS is used up the
+ * remaining lengths are searched depth first.
+ *
+ * The depth first search keeps the current node of every pair per prefix, so extending a
+ * prefix by one op costs one DSL step per pair:
+ *  - a prefix is dropped as soon as a pair gets to -1 (-1 stays -1)
+ *  - Nops are never enumerated, a shorter program is always found first
+ *  - ops undoing the previous op (Left;Right, Right;Left, DownFirst;Up, DownLast;Up) either
+ *    return to the same node or fail, so the program without them is found first. Not so if
+ *    a dst is -1: failing satisfies such a pair, so undo pairs are searched as any other
+ *  - (node vector, remaining ops, previous op) states which failed are remembered and not
+ *    searched again (the previous op matters, it restricts the next one)
+ */
 public class SynEngineBaseline {
 
-	public static boolean trainProgramBaseline(int treeIdx, ASTStore astStore, boolean branchedTraining, Pair<Integer, Object> branchCondValue, ArrayList<Pair<Integer, Integer>> srcDstPairs) {
-		boolean programFound = false;
-		ArrayList<Integer> dslOps = new ArrayList<>();
-		for (int i = 0; i < DSLHelper.OP_CNT; i++) {
-			dslOps.add(i);
+	// bound on the ints of the remembered failed states (pairCnt + 2 per state), searching goes
+	// on without remembering more of them when it's hit
+	private static final int MAX_FAILED_INTS = 1 << 24;
+	// bound on the ints of all node vectors kept by the bottom-up enumeration
+	private static final int MAX_CLASS_INTS = 1 << 24;
+
+	public static boolean trainProgramBaseline(int treeIdx, ASTStore astStore, boolean branchedTraining, Pair<Integer, Object> branchCondValue, ArrayList<Pair<Integer, Integer>> srcDstPairs, SynResult result) {
+		ASTTree tree = astStore.getTree();
+		int pairCnt = srcDstPairs.size();
+		int[] dsts = new int[pairCnt];
+		int[][] nds = new int[Math.max(SynMain.maxOpNum, 0) + 1][pairCnt];
+		for (int i = 0; i < pairCnt; i++) {
+			nds[0][i] = srcDstPairs.get(i).first;
+			dsts[i] = srcDstPairs.get(i).second;
+		}
+		int[] program = new int[nds.length - 1];
+		// node vector followed by the number of remaining ops and the previous op
+		IntTupleSet failedStates = new IntTupleSet(pairCnt + 2);
+		int[] state = new int[pairCnt + 2];
+
+		int firstOps = getFirstOps(tree, srcDstPairs);
+		boolean pruneUndo = true;
+		for (int dst : dsts) {
+			pruneUndo = pruneUndo && dst != -1;
 		}
-		for (int opNum = SynMain.startOpNum; opNum <= SynMain.maxOpNum && !programFound; opNum++) {
-			if (!SynMain.statsOnly) {
+		// no program is shorter than the largest src/dst distance
+		int minLen = Math.max(SynEngine.getMinOpNum(astStore, srcDstPairs), 0);
+		int[] found = null;
+		// the enumeration stops early if its thread gets interrupted (portfolio mode)
+		Thread thread = Thread.currentThread();
+		BottomUp bottomUp = new BottomUp(tree, nds[0], dsts, firstOps, thread);
+		// first length left to the depth first search, -1 while bottom-up goes on
+		int searchFrom = -1;
+		for (int opNum = SynEngine.getStartOpNum(astStore, srcDstPairs); opNum <= SynMain.maxOpNum && found == null && !thread.isInterrupted(); opNum++) {
+			if (!SynMain.statsOnly && !SynMain.resultsOnly) {
 				System.out.println("Training" + (branchedTraining ? " single branch: " : " program: ") + " checking synthesis satisfiability with max op. count: " + opNum);
 			}
-				
-			final String chars = "0123456789abcdefghijklmnopqrstuvwxyz";
-			
-	        double powVal = Math.pow(opNum, dslOps.size());
-	        for (int i = 0; i < powVal; i++) {
-	        	ArrayList<Integer> program = new ArrayList<>();
-	            String str = Integer.toString(i, dslOps.size());
-
-	            while (dslOps.size() + str.length() < opNum) {
-	            	//System.out.println(dslOps.get(0));
-	                program.add(dslOps.get(0));
-	            }
-	            for (char c : str.toCharArray()) {
-	            	//System.out.println(chars.indexOf(c));
-	               	program.add(dslOps.get(chars.indexOf(c)));
-	            }
-	            //if (program.toString().equals("[0, 0, 0, 0, 0, 4, 1]"))
-	            // Add trailing zeros
-	            for (int j = program.size(); j <= opNum; j++ ) {
-		            //System.out.println(program);
-					int k = 0;
-					Integer[] arrProgram = new Integer[program.size()];
-					for (Integer op : program) {
-						arrProgram[k++] = op;
-					}
-					boolean programOk = true;
-					for (Pair<Integer, Integer> pair : srcDstPairs) {
-						int src = pair.first;
-						int dst = pair.second;
-						
-						int dstComputed = DSLHelper.applyDSLSequence(src, astStore, arrProgram);
-						
-						programOk = programOk && (dst == dstComputed);
-						
-						if (!programOk)
-							break;
-					}
-					if (programOk) {
-						programFound = true;
-						if (branchedTraining) {
-							SynEngine.branchedModelInterpretation.put(branchCondValue, SynEngine.eliminateDeadCode(cvtToTreeMap(arrProgram)));
+			// programs shorter than the first op. count are checked along with it
+			if (searchFrom < 0) {
+				found = bottomUp.enumerate(opNum);
+				if (found == null && bottomUp.isBounded())
+					searchFrom = Math.max(bottomUp.getLen() + 1, minLen);
+			}
+			for (int len = searchFrom; searchFrom >= 0 && len <= opNum && found == null; len++) {
+				if (search(tree, nds, dsts, firstOps, pruneUndo, program, 0, len, failedStates, state, thread))
+					found = Arrays.copyOf(program, len);
+			}
+			if (searchFrom >= 0)
+				searchFrom = opNum + 1;
+		}
+
+		if (found != null) {
+			if (branchedTraining) {
+				result.branchedModelInterpretation.put(branchCondValue, SynEngine.eliminateDeadCode(cvtToTreeMap(found)));
+			}
+			else {
+				result.modelInterpretation = SynEngine.eliminateDeadCode(cvtToTreeMap(found));
+			}
+		}
+		if (!SynMain.statsOnly && !SynMain.resultsOnly)
+			System.out.println();
+		return found != null;
+	}
+
+	// Extends the prefix program[0..depth-1] (reaching nds[depth]) by exactly remaining ops
+	private static boolean search(ASTTree tree, int[][] nds, int[] dsts, int firstOps, boolean pruneUndo, int[] program, int depth, int remaining, IntTupleSet failedStates, int[] state, Thread thread) {
+		int[] curr = nds[depth];
+		if (remaining == 0) {
+			for (int i = 0; i < dsts.length; i++) {
+				if (curr[i] != dsts[i])
+					return false;
+			}
+			return true;
+		}
+		if (thread.isInterrupted())
+			return false;
+
+		// without undo pruning the previous op doesn't restrict the next one
+		int prevOp = depth > 0 && pruneUndo ? program[depth - 1] : -1;
+		setState(state, curr, remaining, prevOp);
+		if (failedStates.contains(state))
+			return false;
+
+		int[] next = nds[depth + 1];
+		for (int op = 0; op < DSLHelper.OP_CNT; op++) {
+			if (op == DSLHelper.OP_NOP || undoes(prevOp, op) || (depth == 0 && (firstOps & (1 << op)) == 0))
+				continue;
+			boolean alive = true;
+			for (int i = 0; i < curr.length && alive; i++) {
+				next[i] = DSLHelper.applyDSLOp(curr[i], op, tree);
+				alive = next[i] != -1 || dsts[i] == -1;
+			}
+			if (!alive)
+				continue;
+			program[depth] = op;
+			if (search(tree, nds, dsts, firstOps, pruneUndo, program, depth + 1, remaining - 1, failedStates, state, thread))
+				return true;
+		}
+
+		// an interrupted search didn't fail, it just didn't finish
+		if (!thread.isInterrupted() && failedStates.size() < MAX_FAILED_INTS / state.length) {
+			setState(state, curr, remaining, prevOp);
+			failedStates.add(state);
+		}
+		return false;
+	}
+
+	// Ops a program may start with, bit i for op i
+	private static int getFirstOps(ASTTree tree, ArrayList<Pair<Integer, Integer>> srcDstPairs) {
+		ReachabilityIndex index = DSLHelper.getReachabilityIndex(tree);
+		int firstOps = -1;
+		for (Pair<Integer, Integer> pair : srcDstPairs) {
+			if (pair.second != -1 && tree.contains(pair.first))
+				firstOps &= index.getFirstSteps(pair.first, pair.second);
+		}
+		return firstOps;
+	}
+
+	// Previous ops restricting the next op in the same way share their states
+	private static void setState(int[] state, int[] nds, int remaining, int prevOp) {
+		System.arraycopy(nds, 0, state, 0, nds.length);
+		state[nds.length] = remaining;
+		switch (prevOp) {
+		case DSLHelper.OP_LEFT:
+		case DSLHelper.OP_RIGHT:
+		case DSLHelper.OP_DOWN_FIRST:
+			state[nds.length + 1] = prevOp;
+			break;
+		case DSLHelper.OP_DOWN_LAST:
+			state[nds.length + 1] = DSLHelper.OP_DOWN_FIRST;
+			break;
+		default:
+			state[nds.length + 1] = -1;
+			break;
+		}
+	}
+
+	private static boolean undoes(int prevOp, int op) {
+		switch (op) {
+		case DSLHelper.OP_LEFT:
+			return prevOp == DSLHelper.OP_RIGHT;
+		case DSLHelper.OP_RIGHT:
+			return prevOp == DSLHelper.OP_LEFT;
+		case DSLHelper.OP_UP:
+			return prevOp == DSLHelper.OP_DOWN_FIRST || prevOp == DSLHelper.OP_DOWN_LAST;
+		default:
+			return false;
+		}
+	}
+
+	// Level by level enumeration of node vectors, every vector remembers the op and the
+	// vector it was first reached from, so its program can be read back
+	private static class BottomUp {
+		private final ASTTree tree;
+		private final int[] dsts;
+		private final int firstOps;
+		private final Thread thread;
+		private final IntTupleSet classes;
+		private final int maxClasses;
+		private int[] prevClass = new int[64];
+		private int[] lastOp = new int[64];
+		// vectors of length len are classes levelStart ... classes.size()-1
+		private int levelStart = 0;
+		private int len = 0;
+		private boolean bounded = false;
+		private boolean exhausted = false;
+
+		BottomUp(ASTTree tree, int[] srcs, int[] dsts, int firstOps, Thread thread) {
+			this.tree = tree;
+			this.dsts = dsts;
+			this.firstOps = firstOps;
+			this.thread = thread;
+			classes = new IntTupleSet(srcs.length);
+			maxClasses = Math.max(MAX_CLASS_INTS / Math.max(srcs.length, 1), 1024);
+			classes.add(srcs);
+			prevClass[0] = -1;
+			lastOp[0] = -1;
+		}
+
+		// Lengths all programs have been checked for
+		int getLen() {
+			return len;
+		}
+
+		boolean isBounded() {
+			return bounded;
+		}
+
+		// Shortest program of at most maxLen ops, null if there is none or the enumeration stopped
+		int[] enumerate(int maxLen) {
+			int[] curr = new int[dsts.length];
+			int[] next = new int[dsts.length];
+			if (len == 0) {
+				classes.get(0, curr);
+				if (Arrays.equals(curr, dsts))
+					return new int[0];
+			}
+
+			while (len < maxLen && !exhausted && !bounded) {
+				int levelEnd = classes.size();
+				for (int c = levelStart; c < levelEnd; c++) {
+					if (thread.isInterrupted())
+						return null;
+					classes.get(c, curr);
+					for (int op = 0; op < DSLHelper.OP_CNT; op++) {
+						if (op == DSLHelper.OP_NOP || (c == 0 && (firstOps & (1 << op)) == 0))
+							continue;
+						boolean alive = true;
+						for (int i = 0; i < curr.length && alive; i++) {
+							next[i] = DSLHelper.applyDSLOp(curr[i], op, tree);
+							alive = next[i] != -1 || dsts[i] == -1;
 						}
-						else {
-							SynEngine.modelInterpretation = SynEngine.eliminateDeadCode(cvtToTreeMap(arrProgram));
+						if (!alive || !classes.add(next))
+							continue;
+
+						int idx = classes.size() - 1;
+						if (idx == prevClass.length) {
+							prevClass = Arrays.copyOf(prevClass, idx * 2);
+							lastOp = Arrays.copyOf(lastOp, idx * 2);
+						}
+						prevClass[idx] = c;
+						lastOp[idx] = op;
+						if (Arrays.equals(next, dsts))
+							return readProgram(idx, len + 1);
+						if (classes.size() >= maxClasses) {
+							bounded = true;
+							return null;
 						}
-						break;
 					}
-					program.add(0, 0);
 				}
-	        }
-			
+				levelStart = levelEnd;
+				exhausted = levelStart == classes.size();
+				len++;
+			}
+			return null;
+		}
+
+		private int[] readProgram(int idx, int programLen) {
+			int[] program = new int[programLen];
+			for (int i = programLen - 1; i >= 0; i--) {
+				program[i] = lastOp[idx];
+				idx = prevClass[idx];
+			}
+			return program;
 		}
-		if (!SynMain.statsOnly && !SynMain.resultsOnly)
-			System.out.println();
-		return programFound;
 	}
-	
-	private static TreeMap<Integer, Integer> cvtToTreeMap(Integer[] program) {
+
+	private static TreeMap<Integer, Integer> cvtToTreeMap(int[] program) {
 		TreeMap<Integer, Integer> result = new TreeMap();
 		for (int i = 0; i < program.length; i++) {
 			result.put(i, program[i]);
@@ -0,0 +1,298 @@
+package syn_core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.TreeMap;
+
+import main.SynMain;
+import utils.Pair;
+import ast_utils.ASTStore;
+import ast_utils.ASTTree;
+
+/*
+ * Meet-in-the-middle search for straight line programs of length L (without Nop):
+ *  - backward: starting from dst of the anchor pair (the first pair whose dst is a node),
+ *    suffixes of length L-L/2 are expanded over the inverse DSL relations, giving for every
+ *    node the suffixes leading it to dst
+ *  - forward: prefixes of length L/2 are applied to the sources of all pairs, prefixes
+ *    reaching the same vector of middle nodes are equivalent and only the first one is kept
+ *  - every suffix found for the middle node of the anchor pair is checked on the middle
+ *    nodes of the remaining pairs, the first one leading all of them to dst is the program
+ * Dst -1 (no node) is a sink: a pair with dst -1 is satisfied by any program that fails on it,
+ * so its node may get to -1 anywhere and is only checked in the end. Without an anchor pair
+ * (all dsts are -1) whole programs are searched forward.
+ * Programs are encoded in a long, 4 bits per op, op k of the sequence at bits 4k.
+ */
+public class SynEngineBidirectional {
+
+	private static final int OP_BITS = 4;
+	private static final int OP_MASK = (1 << OP_BITS) - 1;
+	private static final int MAX_PROGRAM_LEN = 64 / OP_BITS - 1;
+
+	public static boolean trainProgramBidirectional(int treeIdx, ASTStore astStore, boolean branchedTraining, Pair<Integer, Object> branchCondValue, ArrayList<Pair<Integer, Integer>> srcDstPairs, SynResult result) {
+		ASTTree tree = astStore.getTree();
+		int pairCnt = srcDstPairs.size();
+		int[] srcs = new int[pairCnt];
+		int[] dsts = new int[pairCnt];
+		for (int i = 0; i < pairCnt; i++) {
+			srcs[i] = srcDstPairs.get(i).first;
+			dsts[i] = srcDstPairs.get(i).second;
+		}
+
+		int[] dslOps = new int[DSLHelper.OP_CNT - 1];
+		for (int op = 0, i = 0; op < DSLHelper.OP_CNT; op++) {
+			if (op != DSLHelper.OP_NOP)
+				dslOps[i++] = op;
+		}
+		InverseRelations inverse = new InverseRelations(tree, dslOps);
+		int anchor = -1;
+		for (int i = 0; i < pairCnt && anchor == -1; i++) {
+			if (dsts[i] != -1)
+				anchor = i;
+		}
+
+		boolean programFound = false;
+		int maxLen = Math.min(SynMain.maxOpNum, MAX_PROGRAM_LEN);
+		int startLen = SynEngine.getStartOpNum(astStore, srcDstPairs);
+		// as with Nops, programs shorter than the first op. count are checked along with it,
+		// starting with the empty program (all srcs are their dsts), Nop isn't among the ops
+		int len = SynEngine.getMinOpNum(astStore, srcDstPairs);
+		// stops early if its thread gets interrupted (cancelled branch)
+		Thread thread = Thread.currentThread();
+		for (int opNum = startLen; opNum <= maxLen && !programFound && !thread.isInterrupted(); opNum++) {
+			if (!SynMain.statsOnly && !SynMain.resultsOnly)
+				System.out.println("Training" + (branchedTraining ? " single branch: " : " program: ") + " meeting in the middle with op. count: " + opNum);
+
+			for (; len <= opNum && !programFound && !thread.isInterrupted(); len++) {
+				int prefixLen = anchor == -1 ? len : len / 2;
+				int suffixLen = len - prefixLen;
+				Backward backward = anchor == -1 ? null : new Backward(tree, inverse, dslOps, dsts[anchor], suffixLen);
+				if (backward != null && backward.isEmpty())
+					continue;
+
+				Forward forward = new Forward(tree, dslOps, srcs, dsts, anchor, prefixLen, suffixLen, backward);
+				if (forward.search()) {
+					TreeMap<Integer, Integer> program = decode(forward.prefix, prefixLen, forward.suffix, suffixLen);
+					if (branchedTraining) {
+						result.branchedModelInterpretation.put(branchCondValue, program);
+					}
+					else {
+						result.modelInterpretation = program;
+					}
+					programFound = true;
+				}
+			}
+		}
+
+		if (!SynMain.statsOnly && !SynMain.resultsOnly)
+			System.out.println();
+		return programFound;
+	}
+
+	private static int applyCode(int ndIdx, long code, int len, ASTTree tree) {
+		for (int k = 0; k < len && ndIdx != -1; k++) {
+			ndIdx = DSLHelper.applyDSLOp(ndIdx, (int) (code >>> (OP_BITS * k)) & OP_MASK, tree);
+		}
+		return ndIdx;
+	}
+
+	private static TreeMap<Integer, Integer> decode(long prefix, int prefixLen, long suffix, int suffixLen) {
+		TreeMap<Integer, Integer> program = new TreeMap<>();
+		for (int k = 0; k < prefixLen; k++) {
+			program.put(k, (int) (prefix >>> (OP_BITS * k)) & OP_MASK);
+		}
+		for (int k = 0; k < suffixLen; k++) {
+			program.put(prefixLen + k, (int) (suffix >>> (OP_BITS * k)) & OP_MASK);
+		}
+		return program;
+	}
+
+	// Predecessors of every node under every DSL op, in CSR form per op
+	private static class InverseRelations {
+		final int[][] offset;
+		final int[][] preds;
+
+		InverseRelations(ASTTree tree, int[] dslOps) {
+			int size = tree.getSize();
+			offset = new int[DSLHelper.OP_CNT][];
+			preds = new int[DSLHelper.OP_CNT][];
+			for (int op : dslOps) {
+				int[] off = new int[size + 1];
+				for (int nd = 0; nd < size; nd++) {
+					int dst = DSLHelper.applyDSLOp(nd, op, tree);
+					if (dst >= 0 && dst < size)
+						off[dst + 1]++;
+				}
+				for (int nd = 0; nd < size; nd++) {
+					off[nd + 1] += off[nd];
+				}
+				int[] fill = Arrays.copyOf(off, size);
+				int[] pr = new int[off[size]];
+				for (int nd = 0; nd < size; nd++) {
+					int dst = DSLHelper.applyDSLOp(nd, op, tree);
+					if (dst >= 0 && dst < size)
+						pr[fill[dst]++] = nd;
+				}
+				offset[op] = off;
+				preds[op] = pr;
+			}
+		}
+	}
+
+	// Suffixes of a fixed length leading to dst, grouped by their starting node
+	private static class Backward {
+		final int[] offset;
+		final long[] codes;
+
+		Backward(ASTTree tree, InverseRelations inverse, int[] dslOps, int dst, int suffixLen) {
+			int size = tree.getSize();
+			int[] nodes = { dst };
+			long[] levelCodes = { 0L };
+			int cnt = dst >= 0 && dst < size ? 1 : 0;
+			for (int level = 0; level < suffixLen && cnt > 0; level++) {
+				int nextCnt = 0;
+				for (int i = 0; i < cnt; i++) {
+					for (int op : dslOps) {
+						nextCnt += inverse.offset[op][nodes[i] + 1] - inverse.offset[op][nodes[i]];
+					}
+				}
+				int[] nextNodes = new int[nextCnt];
+				long[] nextCodes = new long[nextCnt];
+				int k = 0;
+				for (int i = 0; i < cnt; i++) {
+					for (int op : dslOps) {
+						int[] off = inverse.offset[op];
+						for (int p = off[nodes[i]]; p < off[nodes[i] + 1]; p++) {
+							nextNodes[k] = inverse.preds[op][p];
+							nextCodes[k++] = op | (levelCodes[i] << OP_BITS);
+						}
+					}
+				}
+				nodes = nextNodes;
+				levelCodes = nextCodes;
+				cnt = nextCnt;
+			}
+
+			offset = new int[size + 1];
+			for (int i = 0; i < cnt; i++) {
+				offset[nodes[i] + 1]++;
+			}
+			for (int nd = 0; nd < size; nd++) {
+				offset[nd + 1] += offset[nd];
+			}
+			int[] fill = Arrays.copyOf(offset, size);
+			codes = new long[cnt];
+			for (int i = 0; i < cnt; i++) {
+				codes[fill[nodes[i]]++] = levelCodes[i];
+			}
+		}
+
+		boolean isEmpty() {
+			return codes.length == 0;
+		}
+	}
+
+	// DFS over prefixes keeping the current node of every pair
+	private static class Forward {
+		private final ASTTree tree;
+		private final int[] dslOps;
+		private final int[] dsts;
+		private final int anchor;
+		private final int prefixLen;
+		private final int suffixLen;
+		private final Backward backward;
+		private final int[][] vectors;
+		private final HashSet<VectorKey> seen = new HashSet<>();
+
+		long prefix;
+		long suffix;
+
+		Forward(ASTTree tree, int[] dslOps, int[] srcs, int[] dsts, int anchor, int prefixLen, int suffixLen, Backward backward) {
+			this.tree = tree;
+			this.dslOps = dslOps;
+			this.dsts = dsts;
+			this.anchor = anchor;
+			this.prefixLen = prefixLen;
+			this.suffixLen = suffixLen;
+			this.backward = backward;
+			vectors = new int[prefixLen + 1][];
+			vectors[0] = srcs;
+			for (int d = 1; d <= prefixLen; d++) {
+				vectors[d] = new int[srcs.length];
+			}
+		}
+
+		boolean search() {
+			return extend(0, 0L);
+		}
+
+		private boolean extend(int depth, long code) {
+			if (Thread.currentThread().isInterrupted())
+				return false;
+			int[] curr = vectors[depth];
+			if (depth == prefixLen) {
+				if (!seen.add(new VectorKey(curr)))
+					return false;
+				return meet(curr, code);
+			}
+			int[] next = vectors[depth + 1];
+			for (int op : dslOps) {
+				boolean dead = false;
+				for (int i = 0; i < curr.length && !dead; i++) {
+					next[i] = DSLHelper.applyDSLOp(curr[i], op, tree);
+					dead = next[i] == -1 && dsts[i] != -1;
+				}
+				if (!dead && extend(depth + 1, code | ((long) op << (OP_BITS * depth))))
+					return true;
+			}
+			return false;
+		}
+
+		private boolean meet(int[] middle, long prefixCode) {
+			if (backward == null) {
+				if (!Arrays.equals(middle, dsts))
+					return false;
+				prefix = prefixCode;
+				suffix = 0L;
+				return true;
+			}
+			int mid = middle[anchor];
+			if (mid < 0 || mid >= backward.offset.length - 1)
+				return false;
+			for (int p = backward.offset[mid]; p < backward.offset[mid + 1]; p++) {
+				long suffixCode = backward.codes[p];
+				boolean ok = true;
+				for (int i = 0; i < middle.length && ok; i++) {
+					ok = i == anchor || applyCode(middle[i], suffixCode, suffixLen, tree) == dsts[i];
+				}
+				if (ok) {
+					prefix = prefixCode;
+					suffix = suffixCode;
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static class VectorKey {
+		private final int[] vector;
+		private final int hash;
+
+		VectorKey(int[] vector) {
+			this.vector = vector.clone();
+			this.hash = Arrays.hashCode(this.vector);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof VectorKey && Arrays.equals(vector, ((VectorKey) obj).vector);
+		}
+	}
+}
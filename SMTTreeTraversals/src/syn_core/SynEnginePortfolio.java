@@ -0,0 +1,217 @@
+package syn_core;
+
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import main.SynMain;
+import utils.Pair;
+import ast_utils.ASTStore;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Solver;
+import com.microsoft.z3.Status;
+
+/*
+ * Portfolio racing of op. counts: every op. count from startOpNum (raised to the distance
+ * lower bound of the pairs, see SynEngine.getStartOpNum) to maxOpNum is checked
+ * by its own solver on its own SynContext at the same time (optionally together with the
+ * baseline enumerator). Programs may contain Nops, so a SAT op. count n makes every bigger
+ * op. count SAT as well:
+ *  - once n is SAT, solvers of bigger op. counts are interrupted
+ *  - the result is decided when the smallest SAT op. count has all smaller ones UNSAT
+ *  - the baseline enumerates by increasing length, its program is taken as soon as it is found
+ * Remaining solvers are then interrupted and dispose their contexts on their own.
+ */
+public class SynEnginePortfolio {
+
+	private static boolean raceBaseline = false;
+
+	public static void setRaceBaseline(boolean isOn) {
+		raceBaseline = isOn;
+	}
+
+	public static boolean trainProgramPortfolio(int treeIdx, ASTStore astStore, boolean efficientLookup, boolean branchedTraining, Pair<Integer, Object> branchCondValue, ArrayList<Pair<Integer, Integer>> srcDstPairs, SynResult result) {
+		int startOpNum = SynEngine.getStartOpNum(astStore, srcDstPairs);
+		int opNumCnt = Math.max(SynMain.maxOpNum - startOpNum + 1, 0);
+		if (!SynMain.statsOnly && !SynMain.resultsOnly)
+			System.out.println("Training" + (branchedTraining ? " single branch: " : " program: ") + " racing op. counts " + startOpNum + " to " + SynMain.maxOpNum + (raceBaseline ? " and baseline" : ""));
+
+		if (opNumCnt == 0 && !raceBaseline)
+			return false;
+
+		SmtTask[] smtTasks = new SmtTask[opNumCnt];
+		ExecutorService executor = Executors.newFixedThreadPool(opNumCnt + (raceBaseline ? 1 : 0));
+		CompletionService<PortfolioTask> completion = new ExecutorCompletionService<>(executor);
+		for (int i = 0; i < opNumCnt; i++) {
+			smtTasks[i] = new SmtTask(startOpNum + i, astStore, efficientLookup, srcDstPairs);
+			completion.submit(smtTasks[i]);
+		}
+		if (raceBaseline)
+			completion.submit(new BaselineTask(treeIdx, astStore, srcDstPairs));
+
+		// SAT status of every op. count: null while running or interrupted
+		Boolean[] sat = new Boolean[opNumCnt];
+		ArrayList<TreeMap<Integer, Integer>> programs = new ArrayList<>(opNumCnt);
+		for (int i = 0; i < opNumCnt; i++) {
+			programs.add(null);
+		}
+		TreeMap<Integer, Integer> program = null;
+		int bestIdx = opNumCnt;
+		int pending = opNumCnt + (raceBaseline ? 1 : 0);
+		while (pending > 0 && program == null) {
+			PortfolioTask task = null;
+			try {
+				task = completion.take().get();
+			} catch (InterruptedException e) {
+				// training is cancelled (e.g. a cancelled branch), the flag is kept for the caller
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				// a failed task doesn't decide anything, the others keep racing
+				e.printStackTrace();
+			}
+			pending--;
+			if (task == null)
+				continue;
+			if (task instanceof BaselineTask) {
+				program = task.program;
+				continue;
+			}
+
+			int idx = ((SmtTask) task).opNum - startOpNum;
+			sat[idx] = ((SmtTask) task).status;
+			programs.set(idx, task.program);
+			if (task.program != null && idx < bestIdx) {
+				bestIdx = idx;
+				for (int i = bestIdx + 1; i < opNumCnt; i++) {
+					smtTasks[i].cancel();
+				}
+			}
+
+			// decided once all op. counts below the best one are UNSAT
+			int firstOpen = 0;
+			while (firstOpen < bestIdx && sat[firstOpen] == Boolean.FALSE) {
+				firstOpen++;
+			}
+			if (firstOpen == bestIdx && bestIdx < opNumCnt)
+				program = programs.get(bestIdx);
+		}
+
+		// a smaller op. count ended as UNKNOWN, the best SAT one is still a valid program
+		if (program == null && bestIdx < opNumCnt)
+			program = programs.get(bestIdx);
+
+		for (SmtTask task : smtTasks) {
+			task.cancel();
+		}
+		executor.shutdownNow();
+
+		if (program != null) {
+			if (branchedTraining) {
+				result.branchedModelInterpretation.put(branchCondValue, program);
+			}
+			else {
+				result.modelInterpretation = program;
+			}
+		}
+
+		if (!SynMain.statsOnly && !SynMain.resultsOnly)
+			System.out.println();
+		return program != null;
+	}
+
+	private static abstract class PortfolioTask implements Callable<PortfolioTask> {
+		TreeMap<Integer, Integer> program = null;
+	}
+
+	// Single satisfiability check of a fixed op. count
+	private static class SmtTask extends PortfolioTask {
+		final int opNum;
+		private final ASTStore astStore;
+		private final boolean efficientLookup;
+		private final ArrayList<Pair<Integer, Integer>> srcDstPairs;
+		private SynContext ctx = null;
+		private boolean cancelled = false;
+		Boolean status = null;
+
+		SmtTask(int opNum, ASTStore astStore, boolean efficientLookup, ArrayList<Pair<Integer, Integer>> srcDstPairs) {
+			this.opNum = opNum;
+			this.astStore = astStore;
+			this.efficientLookup = efficientLookup;
+			this.srcDstPairs = srcDstPairs;
+		}
+
+		// The context may only be interrupted while it is alive, so interrupting and disposing are serialized
+		synchronized void cancel() {
+			cancelled = true;
+			if (ctx != null)
+				ctx.interrupt();
+		}
+
+		private synchronized boolean start(SynContext ctx) {
+			this.ctx = ctx;
+			return !cancelled;
+		}
+
+		private synchronized void dispose() {
+			ctx.dispose();
+			ctx = null;
+		}
+
+		@Override
+		public PortfolioTask call() throws Exception {
+			SynContext ctx = SynEngineSmt.mkContext(astStore, efficientLookup);
+			for (Pair<Integer, Integer> pair : srcDstPairs) {
+				ctx.addSrcDstPair(pair);
+			}
+			ctx.setOpNum(opNum);
+			try {
+				BoolExpr synFormula = ctx.mkSynthesisFormula();
+				Solver solve = ctx.mkSynthesisSolver();
+				solve.add(synFormula);
+				if (start(ctx)) {
+					Status stat = solve.check();
+					if (stat == Status.SATISFIABLE) {
+						program = SynEngine.eliminateDeadCode(ctx.mkModelInterpretation(solve.getModel()));
+						status = Boolean.TRUE;
+					} else if (stat == Status.UNSATISFIABLE) {
+						status = Boolean.FALSE;
+					}
+				}
+			} finally {
+				if (this.ctx != null)
+					dispose();
+				else
+					ctx.dispose();
+			}
+			return this;
+		}
+	}
+
+	// Baseline enumerator, stops when its thread is interrupted
+	private static class BaselineTask extends PortfolioTask {
+		private final int treeIdx;
+		private final ASTStore astStore;
+		private final ArrayList<Pair<Integer, Integer>> srcDstPairs;
+
+		BaselineTask(int treeIdx, ASTStore astStore, ArrayList<Pair<Integer, Integer>> srcDstPairs) {
+			this.treeIdx = treeIdx;
+			this.astStore = astStore;
+			this.srcDstPairs = srcDstPairs;
+		}
+
+		@Override
+		public PortfolioTask call() {
+			SynResult baselineResult = new SynResult(treeIdx);
+			if (SynEngineBaseline.trainProgramBaseline(treeIdx, astStore, false, null, srcDstPairs, baselineResult))
+				program = baselineResult.modelInterpretation;
+			return this;
+		}
+	}
+}
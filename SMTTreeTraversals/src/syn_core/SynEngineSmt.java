@@ -10,6 +10,7 @@ import java.util.Map.Entry;
 import main.SynMain;
 import utils.Pair;
 import ast_utils.ASTStore;
+import ast_utils.ASTTree;
 
 import com.microsoft.z3.BoolExpr;
 import com.microsoft.z3.Model;
@@ -18,51 +19,117 @@ import com.microsoft.z3.Status;
 
 public class SynEngineSmt {
 
-	public static boolean trainProgramSmt(int treeIdx, ASTStore astStore, boolean efficientLookup, boolean branchedTraining, Pair<Integer, Object> branchCondValue, ArrayList<Pair<Integer, Integer>> srcDstPairs) {
+	// Number of training pairs the formula starts with in CEGIS mode
+	private static final int CEGIS_INIT_PAIRS = 2;
+
+	public static boolean trainProgramSmt(int treeIdx, ASTStore astStore, boolean efficientLookup, boolean branchedTraining, Pair<Integer, Object> branchCondValue, ArrayList<Pair<Integer, Integer>> srcDstPairs, SynResult result) {
+		return trainProgramSmt(treeIdx, astStore, efficientLookup, branchedTraining, branchCondValue, srcDstPairs, result, null);
+	}
+	
+	// Context of the tree's SMT encoding, may be shared by several trainings on the same tree
+	public static SynContext mkContext(ASTStore astStore, boolean efficientLookup) {
 		// Toggle model generation on in Z3 solver
 		HashMap<String, String> cfg = new HashMap<String, String>();
 		cfg.put("model", "true");
-		SynContext ctx = new SynContext(cfg, astStore, efficientLookup);
+		return new SynContext(cfg, astStore, efficientLookup, SynMain.bitvectorEncoding, SynMain.oneHotOps);
+	}
+	
+	// With sharedCtx (e.g. for the branches of a tree) the encoded DSL tables and the incremental
+	// solver are reused from the previous trainings, otherwise a new context is used and disposed
+	public static boolean trainProgramSmt(int treeIdx, ASTStore astStore, boolean efficientLookup, boolean branchedTraining, Pair<Integer, Object> branchCondValue, ArrayList<Pair<Integer, Integer>> srcDstPairs, SynResult result, SynContext sharedCtx) {
+		SynContext ctx = sharedCtx;
+		if (ctx == null)
+			ctx = mkContext(astStore, efficientLookup);
+		else
+			ctx.clearSrcDstPairs();
+		// In CEGIS mode the formula starts with a few pairs only, candidate programs are checked
+		// on all pairs concretely and a failing pair is added to the formula as a counterexample
+		int formulaPairCnt = SynMain.cegisMode ? Math.min(CEGIS_INIT_PAIRS, srcDstPairs.size()) : srcDstPairs.size();
+		for (int i = 0; i < formulaPairCnt; i++) {
+			ctx.addSrcDstPair(srcDstPairs.get(i));
+		}
 		for (Pair<Integer, Integer> pair : srcDstPairs) {
-			ctx.addSrcDstPair(pair);
+			ctx.addTableSrc(pair.first);
 		}
 		
-		int opNum = SynMain.startOpNum;
+		// In incremental mode one solver is kept for all op. counts, the DSL arrays are asserted once
+		// and the op. count dependent part of the formula is guarded by a fresh activation literal,
+		// which is assumed for its check only and switched off for good afterwards
+		Solver solve = null;
+		if (SynMain.incrementalSolving)
+			solve = ctx.getIncrementalSolver();
+		
+		int opNum = SynEngine.getStartOpNum(astStore, srcDstPairs);
 		boolean programFound = false;
-		while (!programFound && opNum <= SynMain.maxOpNum) {
+		// an interrupted training (cancelled branch) stops, its context is interrupted as well
+		while (!programFound && opNum <= SynMain.maxOpNum && !Thread.currentThread().isInterrupted()) {
 			ctx.setOpNum(opNum);
 			if (!SynMain.statsOnly && !SynMain.resultsOnly)
 				System.out.println("Training" + (branchedTraining ? " single branch: " : " program: ") + " checking synthesis satisfiability with max op. count: " + opNum);
+			BoolExpr activation = null;
 			try {
-				BoolExpr synFormula = ctx.mkSynthesisFormula();
-				//System.out.println(synFormula);
-				Solver solve = ctx.mkSolver();
-				solve.add(synFormula);
-				Status stat = solve.check();
+				if (SynMain.incrementalSolving) {
+					activation = ctx.mkActivation();
+					solve.add(ctx.mkImplies(activation, ctx.mkTraversalFormula()));
+				} else {
+					BoolExpr synFormula = ctx.mkSynthesisFormula();
+					//System.out.println(synFormula);
+					solve = ctx.mkSynthesisSolver();
+					solve.add(synFormula);
+				}
+				Status stat = activation != null ? solve.check(activation) : solve.check();
 				if (stat == Status.SATISFIABLE) {
 					Model mod = solve.getModel();
-					if (branchedTraining) {
-						SynEngine.branchedModelInterpretation.put(branchCondValue, SynEngine.eliminateDeadCode(ctx.mkModelInterpretation(mod)));
-					}
-					else {
-						SynEngine.modelInterpretation = SynEngine.eliminateDeadCode(ctx.mkModelInterpretation(mod));
+					TreeMap<Integer, Integer> program = ctx.mkModelInterpretation(mod);
+					Pair<Integer, Integer> counterexample = SynMain.cegisMode ? findCounterexample(program, astStore.getTree(), srcDstPairs) : null;
+					if (counterexample != null) {
+						// same op. count is checked again with the counterexample
+						if (!SynMain.statsOnly && !SynMain.resultsOnly)
+							System.out.println("Training" + (branchedTraining ? " single branch: " : " program: ") + " adding counterexample pair " + counterexample);
+						ctx.addSrcDstPair(counterexample);
+					} else {
+						if (branchedTraining) {
+							result.branchedModelInterpretation.put(branchCondValue, SynEngine.eliminateDeadCode(program));
+						}
+						else {
+							result.modelInterpretation = SynEngine.eliminateDeadCode(program);
+						}
+						programFound = true;
 					}
-					programFound = true;
 				} else {		
 					opNum+=1;			
 				}
 			} catch (Exception e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
+			} finally {
+				// the solver may be shared with later trainings, so the formula of this check is retired
+				if (activation != null)
+					solve.add(ctx.mkNot(activation));
 			}
 		}
 		
 		if (!SynMain.statsOnly && !SynMain.resultsOnly)
 			System.out.println();
-		ctx.dispose();
+		if (sharedCtx == null)
+			ctx.dispose();
 		return programFound;
 	}
 	
+	// First pair the program doesn't lead from src to dst, null if it satisfies all of them
+	private static Pair<Integer, Integer> findCounterexample(TreeMap<Integer, Integer> program, ASTTree tree, ArrayList<Pair<Integer, Integer>> srcDstPairs) {
+		int[] programDslSequence = new int[program.size()];
+		int k = 0;
+		for (Integer op : program.values()) {
+			programDslSequence[k++] = op;
+		}
+		for (Pair<Integer, Integer> pair : srcDstPairs) {
+			if (DSLHelper.applyDSLSequence(pair.first, tree, programDslSequence) != pair.second)
+				return pair;
+		}
+		return null;
+	}
+	
 	
 
 }
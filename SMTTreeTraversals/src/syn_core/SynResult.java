@@ -0,0 +1,32 @@
+package syn_core;
+
+import java.util.HashMap;
+import java.util.TreeMap;
+
+import utils.Pair;
+
+/*
+ * Outcome of training a single tree: either a straight line program, or a branched
+ * program mapping branch conditions to their bodies (together with the classifier
+ * which evaluates the conditions). Every training task gets its own instance,
+ * so trees can be trained concurrently.
+ */
+public class SynResult {
+
+	public final int treeIdx;
+	public TreeMap<Integer, Integer> modelInterpretation = null;
+	public HashMap<Pair<Integer, Object>, TreeMap<Integer, Integer>> branchedModelInterpretation = new HashMap<>();
+	public BranchClassifier bc = null;
+
+	public SynResult(int treeIdx) {
+		this.treeIdx = treeIdx;
+	}
+
+	public boolean isBranched() {
+		return modelInterpretation == null && branchedModelInterpretation.size() > 0;
+	}
+
+	public boolean isFound() {
+		return modelInterpretation != null || branchedModelInterpretation.size() > 0;
+	}
+}
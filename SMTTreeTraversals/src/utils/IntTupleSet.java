@@ -0,0 +1,105 @@
+package utils;
+
+import java.util.Arrays;
+
+/*
+ * Hash set of fixed width int tuples (e.g. node vectors of all src/dst pairs), without
+ * boxing or per tuple objects. Tuples are copied one after another into a single array,
+ * the table is open addressed (linear probing) and holds tuple indices. Tuples keep the
+ * order they were added in, so they can be walked by index as long as the set isn't cleared.
+ */
+public final class IntTupleSet {
+
+	private final int width;
+	private int[] tuples;
+	private int[] hashes;
+	private int[] table;
+	private int size = 0;
+
+	public IntTupleSet(int width) {
+		this.width = width;
+		tuples = new int[16 * width];
+		hashes = new int[16];
+		table = new int[32];
+		Arrays.fill(table, -1);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+		Arrays.fill(table, -1);
+	}
+
+	public boolean contains(int[] tuple) {
+		int hash = hash(tuple);
+		int mask = table.length - 1;
+		for (int slot = hash & mask; table[slot] != -1; slot = (slot + 1) & mask) {
+			if (hashes[table[slot]] == hash && equalsAt(table[slot], tuple))
+				return true;
+		}
+		return false;
+	}
+
+	// Adds a copy of the first width ints of tuple, false if it is already in the set
+	public boolean add(int[] tuple) {
+		int hash = hash(tuple);
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		for (; table[slot] != -1; slot = (slot + 1) & mask) {
+			if (hashes[table[slot]] == hash && equalsAt(table[slot], tuple))
+				return false;
+		}
+
+		if (size == hashes.length) {
+			hashes = Arrays.copyOf(hashes, size * 2);
+			// fails loudly instead of wrapping around for wide tuples
+			tuples = Arrays.copyOf(tuples, Math.multiplyExact(size * 2, width));
+		}
+		System.arraycopy(tuple, 0, tuples, size * width, width);
+		hashes[size] = hash;
+		table[slot] = size++;
+		if (size * 2 > table.length)
+			rehash();
+		return true;
+	}
+
+	// Copies the tuple added as idx-th (in the order of adding) to dst
+	public void get(int idx, int[] dst) {
+		System.arraycopy(tuples, idx * width, dst, 0, width);
+	}
+
+	private boolean equalsAt(int idx, int[] tuple) {
+		int off = idx * width;
+		for (int i = 0; i < width; i++) {
+			if (tuples[off + i] != tuple[i])
+				return false;
+		}
+		return true;
+	}
+
+	private int hash(int[] tuple) {
+		int hash = 1;
+		for (int i = 0; i < width; i++) {
+			hash = 31 * hash + tuple[i];
+		}
+		// spread the low bits used for the slots
+		hash *= 0x9e3779b9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		Arrays.fill(table, -1);
+		int mask = table.length - 1;
+		for (int idx = 0; idx < size; idx++) {
+			int slot = hashes[idx] & mask;
+			while (table[slot] != -1) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = idx;
+		}
+	}
+}
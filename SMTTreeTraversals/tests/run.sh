@@ -42,6 +42,10 @@ t6="./tests_6/"
 
 vm_args=-Xmx2g
 syn_args="-fast $1 -ftrain $2 -ftest $3 -opmin 4 -opmax 7 --resultsonly"
+# reruns on identical inputs skip synthesis if SYN_CACHE_DIR points to a program cache
+if [[ -n "$SYN_CACHE_DIR" ]]; then
+	syn_args="$syn_args -cachedir $SYN_CACHE_DIR"
+fi
 
 java -jar $vm_args "./SynTree.jar" $syn_args
 